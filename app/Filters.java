@@ -5,6 +5,7 @@ import play.http.HttpFilters;
 import play.mvc.*;
 
 import filters.ExampleFilter;
+import filters.RateLimitFilter;
 
 /**
  * This class configures filters that run on every request. This
@@ -20,26 +21,29 @@ public class Filters implements HttpFilters {
 
     private final Environment env;
     private final EssentialFilter exampleFilter;
+    private final EssentialFilter rateLimitFilter;
 
     /**
      * @param env Basic environment settings for the current application.
      * @param exampleFilter A demonstration filter that adds a header to
+     * @param rateLimitFilter Limits how often a client may call the
+     * expensive endpoints.
      */
     @Inject
-    public Filters(Environment env, ExampleFilter exampleFilter) {
+    public Filters(Environment env, ExampleFilter exampleFilter, RateLimitFilter rateLimitFilter) {
         this.env = env;
         this.exampleFilter = exampleFilter;
+        this.rateLimitFilter = rateLimitFilter;
     }
 
     @Override
     public EssentialFilter[] filters() {
-      // Use the example filter if we're running development mode. If
-      // we're running in production or test mode then don't use any
-      // filters at all.
+      // Use the example filter if we're running development mode. The
+      // rate limit filter runs in every mode.
       if (env.mode().equals(Mode.DEV)) {
-          return new EssentialFilter[] { exampleFilter };
+          return new EssentialFilter[] { rateLimitFilter, exampleFilter };
       } else {
-         return new EssentialFilter[] {};
+         return new EssentialFilter[] { rateLimitFilter };
       }
     }
 
@@ -4,6 +4,8 @@ import java.time.Clock;
 import services.ApplicationTimer;
 import services.AtomicCounter;
 import services.Counter;
+import services.IdBlocks;
+import services.PublicCodes;
 
 /**
  * This class is a Guice module that tells Guice how to bind several
@@ -24,6 +26,10 @@ public class Module extends AbstractModule {
         // Ask Guice to create an instance of ApplicationTimer when the
         // application starts.
         bind(ApplicationTimer.class).asEagerSingleton();
+        // Set the id block size before the first poll is created.
+        bind(IdBlocks.class).asEagerSingleton();
+        // Set the code secret before the first code is generated.
+        bind(PublicCodes.class).asEagerSingleton();
         // Set AtomicCounter as the implementation for Counter.
         bind(Counter.class).to(AtomicCounter.class);
     }
@@ -0,0 +1,53 @@
+package controllers;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import models.Principal;
+import models.SecuredAction;
+import play.libs.Json;
+import play.mvc.Controller;
+import play.mvc.Result;
+import play.mvc.With;
+import services.Metrics;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * This controller exposes the in-process {@link Metrics} as json to
+ * voters with the <code>Admin</code> role.
+ */
+@Singleton
+public class MetricsController extends Controller {
+
+    private final Metrics metrics;
+
+    @Inject
+    public MetricsController(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @With(SecuredAction.class)
+    public Result metrics() {
+        Principal principal = (Principal) ctx().args.get("principal");
+        if(!"Admin".equals(principal.role)) {
+            ObjectNode jsonResponseBody = Json.newObject();
+            ArrayNode errors = Json.newArray();
+            requestResourceForbidden(errors, "metrics");
+            jsonResponseBody.set("errors", errors);
+            return forbidden(jsonResponseBody);
+        }
+        return ok(metrics.snapshot());
+    }
+
+    private static void requestResourceForbidden(ArrayNode errorsArray, String resource) {
+        ObjectNode error = Json.newObject();
+        error.put("status", 403);
+        error.put("code", 7);
+        error.put("title", "Resource " + resource + " is forbidden.");
+        error.put("detail", "Resource " + resource + " is forbidden. The admin role is required.");
+        error.put("moreInfo", "https://localhost:9000/documentation");
+        errorsArray.add(error);
+    }
+
+}
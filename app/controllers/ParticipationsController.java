@@ -1,41 +1,53 @@
 package controllers;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import controllers.requests.RequestBinder;
+import controllers.requests.RequestDocument;
+import controllers.requests.UserAttributes;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import models.*;
 import play.Configuration;
 import play.Logger;
 import play.libs.Json;
+import play.mvc.BodyParser;
 import play.mvc.Controller;
 import play.mvc.Result;
 import play.mvc.With;
+import services.DatabaseExecutionContext;
 
 import javax.inject.Inject;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletionStage;
 
 public class ParticipationsController extends Controller {
 
     private final Configuration configuration;
+    private final DatabaseExecutionContext databaseExecutionContext;
     private final String SECRET_KEY_BASE64_ENCODED;
 
     @Inject
-    public ParticipationsController(Configuration configuration) {
+    public ParticipationsController(Configuration configuration, DatabaseExecutionContext databaseExecutionContext) {
         this.configuration = configuration;
+        this.databaseExecutionContext = databaseExecutionContext;
         this.SECRET_KEY_BASE64_ENCODED = configuration.getString("jwt.token.key");
     }
 
     @With(SecuredAction.class)
-    public Result createParticipation() {
+    @BodyParser.Of(BodyParser.Raw.class)
+    public CompletionStage<Result> createParticipation() {
+        return databaseExecutionContext.supplyAsync(this::doCreateParticipation).exceptionally(failure -> ServiceUnavailable.recover(failure, "participations"));
+    }
+
+    private Result doCreateParticipation() {
         Voter user = (Voter) ctx().args.get("user");
-        final JsonNode jsonRequestBody = request().body().asJson();
+        final RequestDocument<UserAttributes> requestDocument = RequestBinder.bindUserDocument(request());
         ObjectNode jsonResponseBody = play.libs.Json.newObject();
         ArrayNode errors = play.libs.Json.newArray();
-        Logger.debug("request: "+ jsonRequestBody.toString());
 
-        if(jsonRequestBody.size() == 0) {
+        if(requestDocument == null || requestDocument.data == null) {
             requestEmptyBody(errors);
             jsonResponseBody.set("errors", errors);
             return badRequest(jsonResponseBody);
@@ -43,13 +55,14 @@ public class ParticipationsController extends Controller {
 
         boolean exitWithError = false;
         //Validate all fields and respond with multiple errors.
-        JsonNode pollId = jsonRequestBody.findPath("poll").findPath("id");
-        if(pollId.isMissingNode()) {
+        final String pollId = requestDocument.relationshipId("poll");
+        if(pollId == null) {
             exitWithError = true;
             requestMissingField(errors, "poll id");
         }
-        JsonNode username = jsonRequestBody.findPath("username");
-        if(username.isMissingNode()) {
+        final UserAttributes includedUser = requestDocument.includedAttributes("users");
+        final String username = includedUser == null ? null : includedUser.username;
+        if(username == null) {
             exitWithError = true;
             requestMissingField(errors, "username");
         }
@@ -59,7 +72,7 @@ public class ParticipationsController extends Controller {
         }
 
         //Respond with individual errors.
-        Poll poll = Poll.findPollByCode(pollId.textValue());
+        Poll poll = Poll.findPollByCode(pollId);
         if(poll == null) {
             requestResourceNotFound(errors, "poll");
             jsonResponseBody.set("errors", errors);
@@ -71,7 +84,7 @@ public class ParticipationsController extends Controller {
             return forbidden(jsonResponseBody);
         }
 
-        Voter voter = Voter.findVoterByUsername(username.textValue());
+        Voter voter = Voter.findVoterByUsername(username);
         if(voter == null) {
             requestResourceNotFound(errors, "user");
             jsonResponseBody.set("errors", errors);
@@ -1,54 +1,84 @@
 package controllers;
 
-import com.avaje.ebean.PagedList;
+import akka.stream.javadsl.Source;
+import controllers.requests.PollAttributes;
+import controllers.requests.RequestBinder;
+import controllers.requests.RequestDocument;
+import controllers.requests.Validators;
+import com.avaje.ebean.Ebean;
+import com.avaje.ebean.Transaction;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import models.*;
 import play.Configuration;
 import play.Logger;
+import play.libs.EventSource;
 import play.libs.Json;
+import play.mvc.BodyParser;
 import play.mvc.Controller;
+import play.mvc.Http;
 import play.mvc.Result;
 import play.mvc.With;
 import scala.util.parsing.json.JSONArray;
+import services.DatabaseExecutionContext;
+import services.PollCounts;
+import services.PollDocumentCache;
+import services.PollDocumentCache.PollDocument;
+import services.PollResultsBroadcaster;
+import services.PublicFeed;
+import services.TallyAggregator;
 
 import javax.inject.Inject;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
 
 public class PollsController extends Controller {
 
-    private static final Set<String> POLL_VISIBILITY_SET = new HashSet<>(Arrays.asList("Public", "Private"));
-    private static final Set<String> POLL_MODE_SET = new HashSet<>(Arrays.asList("Single", "Multiple"));
-    private static final int POLL_MIN_QUESTION_CHARS = 8;
-    private static final int POLL_MAX_QUESTION_CHARS = 250;
-    private static final int POLL_MIN_OPTIONS = 2;
-    private static final int POLL_MIN_OPTION_CHARS = 1;
-    private static final int POLL_MAX_OPTION_CHARS = 100;
-    private static final int POLL_MIN_EXPIRATION_DAYS = 1;
-    private static final int POLL_MAX_EXPIRATION_DAYS = 30;
     private static final int POLL_DEFAULT_PAGE_SIZE = 10;
     private static final int POLL_MAX_PAGE_SIZE = 100;
     private final Configuration configuration;
+    private final TallyAggregator tallyAggregator;
+    private final DatabaseExecutionContext databaseExecutionContext;
+    private final PollResultsBroadcaster pollResultsBroadcaster;
+    private final PollDocumentCache pollDocumentCache;
+    private final PollCounts pollCounts;
+    private final PublicFeed publicFeed;
     private final String SECRET_KEY_BASE64_ENCODED;
 
     @Inject
-    public PollsController(Configuration configuration) {
+    public PollsController(Configuration configuration, TallyAggregator tallyAggregator,
+                           DatabaseExecutionContext databaseExecutionContext,
+                           PollResultsBroadcaster pollResultsBroadcaster,
+                           PollDocumentCache pollDocumentCache, PollCounts pollCounts,
+                           PublicFeed publicFeed) {
         this.configuration = configuration;
+        this.tallyAggregator = tallyAggregator;
+        this.databaseExecutionContext = databaseExecutionContext;
+        this.pollResultsBroadcaster = pollResultsBroadcaster;
+        this.pollDocumentCache = pollDocumentCache;
+        this.pollCounts = pollCounts;
+        this.publicFeed = publicFeed;
         this.SECRET_KEY_BASE64_ENCODED = configuration.getString("jwt.token.key");
     }
 
     @With(SecuredAction.class)
-    public Result createPoll() {
+    @BodyParser.Of(BodyParser.Raw.class)
+    public CompletionStage<Result> createPoll() {
+        return databaseExecutionContext.supplyAsync(this::doCreatePoll).exceptionally(failure -> ServiceUnavailable.recover(failure, "polls"));
+    }
+
+    private Result doCreatePoll() {
         Voter user = (Voter) ctx().args.get("user");
-        final JsonNode jsonRequestBody = request().body().asJson();
+        final RequestDocument<PollAttributes> requestDocument = RequestBinder.bindPollDocument(request());
         ObjectNode jsonResponseBody = play.libs.Json.newObject();
         ArrayNode errors = play.libs.Json.newArray();
-        Logger.debug("request: "+ jsonRequestBody.toString());
 
-        if(jsonRequestBody == null) {
+        final PollAttributes attributes = requestDocument == null ? null : requestDocument.attributes();
+        if(attributes == null) {
             requestEmptyBody(errors);
             jsonResponseBody.set("errors", errors);
             return badRequest(jsonResponseBody);
@@ -56,86 +86,124 @@ public class PollsController extends Controller {
 
         boolean exitWithError = false;
         //Validate all fields and respond with multiple errors.
-        JsonNode visibility = jsonRequestBody.findPath("visibility");
-        if(visibility.isMissingNode()) {
+        if(attributes.visibility == null) {
             exitWithError = true;
             requestMissingField(errors, "visibility");
-        } else if(!POLL_VISIBILITY_SET.contains(visibility.textValue())) {
+        } else if(!Validators.isPollVisibilityValid(attributes.visibility)) {
             exitWithError = true;
             requestValidationError(errors, "visibility");
         }
-        JsonNode mode = jsonRequestBody.findPath("mode");
-        if(mode.isMissingNode()) {
+        if(attributes.mode == null) {
             exitWithError = true;
             requestMissingField(errors, "mode");
-        } else if(!POLL_MODE_SET.contains(mode.textValue())) {
+        } else if(!Validators.isPollModeValid(attributes.mode)) {
             exitWithError = true;
             requestValidationError(errors, "mode");
         }
-        JsonNode question = jsonRequestBody.findPath("question");
-        if(question.isMissingNode()) {
+        if(attributes.question == null) {
             exitWithError = true;
             requestMissingField(errors, "question");
-        } else if(!isPollQuestionLengthValid(question.textValue())) {
+        } else if(!Validators.isPollQuestionLengthValid(attributes.question)) {
             exitWithError = true;
             requestValidationError(errors, "question");
         }
-        JsonNode expiration = jsonRequestBody.findPath("expiration");
-        if(expiration.isMissingNode()) {
+        if(attributes.expiration == null) {
             exitWithError = true;
             requestMissingField(errors, "expiration");
 
-        } else if(!isPollExpirationValid(Integer.parseInt(expiration.textValue()))) {
+        } else if(!Validators.isPollExpirationValid(attributes.expiration)) {
             exitWithError = true;
             requestValidationError(errors, "expiration");
         }
         List<Option> optionsList = new ArrayList<>();
-        JsonNode options = jsonRequestBody.findPath("options");
-        if(options.isMissingNode() || !options.isArray()) {
+        if(attributes.options == null) {
             exitWithError = true;
             requestMissingField(errors, "options");
-        } else if (options.size() < POLL_MIN_OPTIONS) {
+        } else if (attributes.options.size() < Validators.POLL_MIN_OPTIONS) {
             exitWithError = true;
             requestNotEnoughOptions(errors);
         } else {
-            for(JsonNode option : options) {
-                if (!isPollOptionLengthValid(option.get("option").textValue())) {
+            for(PollAttributes.OptionAttributes option : attributes.options) {
+                if (!Validators.isPollOptionLengthValid(option.option)) {
                     exitWithError = true;
-                    requestValidationError(errors, "option (" + option.get("option").textValue() + ")");
+                    requestValidationError(errors, "option (" + option.option + ")");
                 }
-                optionsList.add(new Option(option.get("option").textValue()));
             }
         }
         if(exitWithError) {
             jsonResponseBody.set("errors", errors);
             return badRequest(jsonResponseBody);
         }
+        for(PollAttributes.OptionAttributes option : attributes.options) {
+            optionsList.add(new Option(option.option));
+        }
+
+        //The creator is rendered in the response and the public feed, load it
+        //before anything is committed so nothing is queried after the commit.
+        final Voter creator = Voter.find.byId(user.id);
+        if(creator == null) {
+            requestResourceNotFound(errors, "user");
+            jsonResponseBody.set("errors", errors);
+            return notFound(jsonResponseBody);
+        }
 
         //Save Poll along with options.
         Poll newPoll = new Poll(
-                user,
-                visibility.textValue(),
-                mode.textValue(),
-                question.textValue(),
-                Instant.now().plus(Integer.parseInt(expiration.textValue()), ChronoUnit.DAYS));
+                creator,
+                attributes.visibility,
+                attributes.mode,
+                attributes.question,
+                Instant.now().plus(attributes.expiration, ChronoUnit.DAYS));
 
         newPoll.options = optionsList;
-        newPoll.save();
-
         //Creator participates by default.
-        Participation creatorParticipation = new Participation(user, newPoll);
-        creatorParticipation.save();
+        Participation creatorParticipation = new Participation(creator, newPoll);
+
+        //Ids are known up front, so the poll, its options and the participation
+        //are written in one transaction with one batch per table.
+        Transaction transaction = Ebean.beginTransaction();
+        try {
+            transaction.setBatchMode(true);
+            transaction.setBatchSize(optionsList.size() + 2);
+            newPoll.save();
+            creatorParticipation.save();
+            long ticket = publicFeed.beginCommit();
+            try {
+                transaction.commit();
+                publicFeed.pollCreated(ticket, newPoll);
+            } finally {
+                publicFeed.endCommit(ticket);
+            }
+        } finally {
+            transaction.end();
+        }
+        pollCounts.pollCreated(newPoll);
 
         jsonResponseBody.set("data", pollDataObject(newPoll));
         return created(jsonResponseBody);
     }
 
     @With(SecuredAction.class)
-    public Result fetchPoll(String id) {
+    public CompletionStage<Result> fetchPoll(String id) {
+        return databaseExecutionContext.supplyAsync(() -> doFetchPoll(id)).exceptionally(failure -> ServiceUnavailable.recover(failure, "polls"));
+    }
+
+    private Result doFetchPoll(String id) {
         Voter user = (Voter) ctx().args.get("user");
         ObjectNode jsonResponseBody = play.libs.Json.newObject();
         ArrayNode errors = play.libs.Json.newArray();
 
+        //Serve the rendered document if no vote or change has outdated it.
+        final PollDocument cached = pollDocumentCache.get(id, request().host());
+        if(cached != null) {
+            if(cached.visibility.equals("Private") && Participation.findParticipationByIds(user.id, cached.pollId) == null) {
+                requestResourceForbidden(errors, "poll");
+                jsonResponseBody.set("errors", errors);
+                return forbidden(jsonResponseBody);
+            }
+            return ok(cached.body).as(Http.MimeTypes.JSON);
+        }
+
         //Check if poll exists.
         final Poll poll = Poll.findPollByCode(id);
         if(poll == null) {
@@ -153,90 +221,212 @@ public class PollsController extends Controller {
             }
         }
 
-        pollSingle(jsonResponseBody, poll);
-        return ok(jsonResponseBody);
+        //The tallies are read after the version, a vote in between outdates the document.
+        final long version = pollDocumentCache.version(poll.id);
+        final PollView view = tallyAggregator.read(() -> {
+            poll.options = Option.findOptionTalliesByPoll(poll.id);
+            return pollView(poll);
+        });
+        pollSingle(jsonResponseBody, view);
+        final String body = Json.stringify(jsonResponseBody);
+        pollDocumentCache.put(id, request().host(), new PollDocument(poll.id, poll.visibility, version, body));
+        return ok(body).as(Http.MimeTypes.JSON);
+    }
+
+    @With(SecuredAction.class)
+    public CompletionStage<Result> streamPoll(String id) {
+        return databaseExecutionContext.supplyAsync(() -> doStreamPoll(id)).exceptionally(failure -> ServiceUnavailable.recover(failure, "polls"));
+    }
+
+    private Result doStreamPoll(String id) {
+        Voter user = (Voter) ctx().args.get("user");
+        ObjectNode jsonResponseBody = play.libs.Json.newObject();
+        ArrayNode errors = play.libs.Json.newArray();
+
+        //Check if poll exists.
+        final Poll poll = Poll.findPollByCode(id);
+        if(poll == null) {
+            requestResourceNotFound(errors, "poll");
+            jsonResponseBody.set("errors", errors);
+            return notFound(jsonResponseBody);
+        }
+
+        if(poll.visibility.equals("Private")) {
+            final Participation participation = Participation.findParticipationByIds(user.id, poll.id);
+            if(participation == null) {
+                requestResourceForbidden(errors, "poll");
+                jsonResponseBody.set("errors", errors);
+                return forbidden(jsonResponseBody);
+            }
+        }
+
+        //Push the poll results as server-sent events whenever votes change them.
+        Source<EventSource.Event, ?> events = pollResultsBroadcaster.subscribe(poll.id, poll.code)
+                .map(frame -> EventSource.Event.event(frame));
+        return ok().chunked(events.via(EventSource.flow())).as(Http.MimeTypes.EVENT_STREAM);
     }
 
     @With(SecuredAction.class)
-    public Result fetchPollsPublic(int page, int size) {
+    public CompletionStage<Result> fetchPollsPublic(int page, int size, String cursor) {
+        return databaseExecutionContext.supplyAsync(() -> doFetchPollsPublic(page, size, cursor)).exceptionally(failure -> ServiceUnavailable.recover(failure, "polls"));
+    }
+
+    private Result doFetchPollsPublic(int page, int requestedSize, String cursor) {
         ObjectNode jsonResponseBody = Json.newObject();
         ArrayNode errors = play.libs.Json.newArray();
 
-        if(size == 0) size = 10;
+        final int size = requestedSize == 0 ? 10 : requestedSize;
         if(size > POLL_MAX_PAGE_SIZE) {
             requestPageSizeTooBig(errors);
             jsonResponseBody.set("errors", errors);
             return badRequest(jsonResponseBody);
         }
+        if(size < 1) {
+            requestValidationError(errors, "size");
+            jsonResponseBody.set("errors", errors);
+            return badRequest(jsonResponseBody);
+        }
 
-        PagedList<Poll> pagedList = Poll.findPublicPollsPagedList(page, size);
-        //Optional: We could initiate counting in a background thread or use a Future.
-        pagedList.getTotalRowCount();
-
-        pollsPaginated(jsonResponseBody, pagedList, "public");
+        //Offset paging is kept for clients that ask for a page.
+        if(page >= 0 && cursor == null) {
+            //The newest pages are served from memory.
+            List<PollView> snapshotPolls = publicFeed.offsetPage(page, size);
+            if(snapshotPolls != null) {
+                int totalRowCount = publicFeed.completeCount();
+                if(totalRowCount < 0) totalRowCount = pollCounts.publicCount().getAsInt();
+                pollsPaginated(jsonResponseBody, snapshotPolls, pollPaginationLinks(page, size, totalRowCount, "public"));
+                return ok(jsonResponseBody);
+            }
+            //The count runs alongside the page query unless it is cached.
+            PollCounts.Total totalRowCount = pollCounts.publicCount();
+            List<PollView> polls;
+            try {
+                polls = tallyAggregator.read(() -> pollViews(Poll.findPublicPollsPagedList(page, size).getList()));
+            } catch (RuntimeException e) {
+                totalRowCount.cancel();
+                throw e;
+            }
+            pollsPaginated(jsonResponseBody, polls, pollPaginationLinks(page, size, totalRowCount.getAsInt(), "public"));
+            return ok(jsonResponseBody);
+        }
+        PollCursor pollCursor = cursor == null ? null : PollCursor.decode(cursor);
+        if(cursor != null && pollCursor == null) {
+            requestValidationError(errors, "cursor");
+            jsonResponseBody.set("errors", errors);
+            return badRequest(jsonResponseBody);
+        }
+        PublicFeed.Page snapshotPage = publicFeed.page(pollCursor, size);
+        if(snapshotPage != null) {
+            pollsPaginated(jsonResponseBody, snapshotPage.polls,
+                    pollCursorLinks(snapshotPage.polls, snapshotPage.hasNext, snapshotPage.hasPrev, size, "public"));
+            return ok(jsonResponseBody);
+        }
+        PublicFeed.Page pollPage = pollViewPage(() -> Poll.findPublicPollsPage(pollCursor, size));
+        pollsPaginated(jsonResponseBody, pollPage.polls, pollCursorLinks(pollPage.polls, pollPage.hasNext, pollPage.hasPrev, size, "public"));
         return ok(jsonResponseBody);
     }
 
     @With(SecuredAction.class)
-    public Result fetchPollsPrivate(int page, int size) {
+    public CompletionStage<Result> fetchPollsPrivate(int page, int size, String cursor) {
+        return databaseExecutionContext.supplyAsync(() -> doFetchPollsPrivate(page, size, cursor)).exceptionally(failure -> ServiceUnavailable.recover(failure, "polls"));
+    }
+
+    private Result doFetchPollsPrivate(int page, int requestedSize, String cursor) {
         Voter user = (Voter) ctx().args.get("user");
         ObjectNode jsonResponseBody = Json.newObject();
         ArrayNode errors = play.libs.Json.newArray();
 
-        if(size == 0) size = 10;
+        final int size = requestedSize == 0 ? 10 : requestedSize;
         if(size > POLL_MAX_PAGE_SIZE) {
             requestPageSizeTooBig(errors);
             jsonResponseBody.set("errors", errors);
             return badRequest(jsonResponseBody);
         }
-
-        List<Long> participatedPollIds = new ArrayList<>();
-        for (Participation participation : user.participatedPolls) {
-            participatedPollIds.add(participation.poll.id);
+        if(size < 1) {
+            requestValidationError(errors, "size");
+            jsonResponseBody.set("errors", errors);
+            return badRequest(jsonResponseBody);
         }
 
-        PagedList<Poll> pagedList = Poll.findPrivatePollsPagedList(page, size, participatedPollIds);
-        //Optional: We could initiate counting in a background thread or use a Future.
-        pagedList.getTotalRowCount();
-
-        pollsPaginated(jsonResponseBody, pagedList, "private");
+        //Offset paging is kept for clients that ask for a page.
+        if(page >= 0 && cursor == null) {
+            //The count runs alongside the page query unless it is cached.
+            PollCounts.Total totalRowCount = pollCounts.privateCount(user.id);
+            List<PollView> polls;
+            try {
+                polls = tallyAggregator.read(() -> pollViews(Poll.findPrivatePollsPagedList(page, size, user.id).getList()));
+            } catch (RuntimeException e) {
+                totalRowCount.cancel();
+                throw e;
+            }
+            pollsPaginated(jsonResponseBody, polls, pollPaginationLinks(page, size, totalRowCount.getAsInt(), "private"));
+            return ok(jsonResponseBody);
+        }
+        PollCursor pollCursor = cursor == null ? null : PollCursor.decode(cursor);
+        if(cursor != null && pollCursor == null) {
+            requestValidationError(errors, "cursor");
+            jsonResponseBody.set("errors", errors);
+            return badRequest(jsonResponseBody);
+        }
+        PublicFeed.Page pollPage = pollViewPage(() -> Poll.findPrivatePollsPage(pollCursor, size, user.id));
+        pollsPaginated(jsonResponseBody, pollPage.polls, pollCursorLinks(pollPage.polls, pollPage.hasNext, pollPage.hasPrev, size, "private"));
         return ok(jsonResponseBody);
     }
 
     @With(SecuredAction.class)
-    public Result fetchPollsCreated(int page, int size) {
+    public CompletionStage<Result> fetchPollsCreated(int page, int size, String cursor) {
+        return databaseExecutionContext.supplyAsync(() -> doFetchPollsCreated(page, size, cursor)).exceptionally(failure -> ServiceUnavailable.recover(failure, "polls"));
+    }
+
+    private Result doFetchPollsCreated(int page, int requestedSize, String cursor) {
         Voter user = (Voter) ctx().args.get("user");
         ObjectNode jsonResponseBody = Json.newObject();
         ArrayNode errors = play.libs.Json.newArray();
 
-        if(size == 0) size = 10;
+        final int size = requestedSize == 0 ? 10 : requestedSize;
         if(size > POLL_MAX_PAGE_SIZE) {
             requestPageSizeTooBig(errors);
             jsonResponseBody.set("errors", errors);
             return badRequest(jsonResponseBody);
         }
+        if(size < 1) {
+            requestValidationError(errors, "size");
+            jsonResponseBody.set("errors", errors);
+            return badRequest(jsonResponseBody);
+        }
 
-        PagedList<Poll> pagedList = Poll.findCreatedPollsPagedList(page, size, user.id);
-        //Optional: We could initiate counting in a background thread or use a Future.
-        pagedList.getTotalRowCount();
-
-        pollsPaginated(jsonResponseBody, pagedList, "created");
+        //Offset paging is kept for clients that ask for a page.
+        if(page >= 0 && cursor == null) {
+            //The count runs alongside the page query unless it is cached.
+            PollCounts.Total totalRowCount = pollCounts.createdCount(user.id);
+            List<PollView> polls;
+            try {
+                polls = tallyAggregator.read(() -> pollViews(Poll.findCreatedPollsPagedList(page, size, user.id).getList()));
+            } catch (RuntimeException e) {
+                totalRowCount.cancel();
+                throw e;
+            }
+            pollsPaginated(jsonResponseBody, polls, pollPaginationLinks(page, size, totalRowCount.getAsInt(), "created"));
+            return ok(jsonResponseBody);
+        }
+        PollCursor pollCursor = cursor == null ? null : PollCursor.decode(cursor);
+        if(cursor != null && pollCursor == null) {
+            requestValidationError(errors, "cursor");
+            jsonResponseBody.set("errors", errors);
+            return badRequest(jsonResponseBody);
+        }
+        PublicFeed.Page pollPage = pollViewPage(() -> Poll.findCreatedPollsPage(pollCursor, size, user.id));
+        pollsPaginated(jsonResponseBody, pollPage.polls, pollCursorLinks(pollPage.polls, pollPage.hasNext, pollPage.hasPrev, size, "created"));
         return ok(jsonResponseBody);
     }
 
     //Todo: Do i need to to fetchPollsParticipated?
 
-    private static boolean isPollExpirationValid(int days) {
-        return days >= POLL_MIN_EXPIRATION_DAYS && days <= POLL_MAX_EXPIRATION_DAYS;
-    }
-    private static boolean isPollQuestionLengthValid(String question) {
-        return question.length() >= POLL_MIN_QUESTION_CHARS && question.length() <= POLL_MAX_QUESTION_CHARS;
-    }
-    private static boolean isPollOptionLengthValid(String option) {
-        return option.length() >= POLL_MIN_OPTION_CHARS && option.length() <= POLL_MAX_OPTION_CHARS;
-    }
 
-    public static ObjectNode pollDataObject(Poll poll) {
+    public ObjectNode pollDataObject(Poll poll) {
+        return pollDataObject(pollView(poll));
+    }
+    private ObjectNode pollDataObject(PollView poll) {
         ObjectNode resource = Json.newObject();
         //Resource type and id.
         resource.put("type", "polls");
@@ -273,9 +463,9 @@ public class PollsController extends Controller {
         resource.set("links", links);
         return resource;
     }
-    private static ArrayNode pollOptionsArray(Poll poll) {
+    private ArrayNode pollOptionsArray(PollView poll) {
         ArrayNode options = Json.newArray();
-        for (Option pollOption : poll.options) {
+        for (PollView.OptionView pollOption : poll.options) {
             ObjectNode option = Json.newObject();
             option.put("id", pollOption.code);
             option.put("option", pollOption.option);
@@ -284,64 +474,75 @@ public class PollsController extends Controller {
         }
         return options;
     }
-    private static ObjectNode pollPaginationLinks(PagedList<Poll> pagedList, String path) {
+    private PollView pollView(Poll poll) {
+        //Include votes that are accepted but not flushed yet.
+        return PollView.of(poll, option -> option.votes + tallyAggregator.pendingDelta(option.id));
+    }
+    private List<PollView> pollViews(List<Poll> polls) {
+        List<PollView> views = new ArrayList<>(polls.size());
+        for(Poll poll : polls) {
+            views.add(pollView(poll));
+        }
+        return views;
+    }
+    private PublicFeed.Page pollViewPage(Supplier<PollPage> find) {
+        //The page query reads the tallies, it runs again if a flush moved them meanwhile.
+        return tallyAggregator.read(() -> {
+            PollPage pollPage = find.get();
+            return new PublicFeed.Page(pollViews(pollPage.polls), pollPage.hasNext, pollPage.hasPrev);
+        });
+    }
+    static ObjectNode pollPaginationLinks(int pageIndex, int size, int totalRowCount, String path) {
         ObjectNode links = Json.newObject();
+        links.put("first", pollsUrl(path, 0, size, null));
+        links.put("last", pollsUrl(path, (int) Math.ceil((double)totalRowCount/size)-1, size, null));
+        if((pageIndex+1) * size < totalRowCount)
+            links.put("next", pollsUrl(path, pageIndex+1, size, null));
+        if(pageIndex > 0)
+            links.put("prev", pollsUrl(path, pageIndex-1, size, null));
+        return links;
+    }
+    private static ObjectNode pollCursorLinks(List<PollView> polls, boolean hasNext, boolean hasPrev, int size, String path) {
+        ObjectNode links = Json.newObject();
+        links.put("first", pollsUrl(path, -1, size, null));
+        if(hasNext && !polls.isEmpty())
+            links.put("next", pollsUrl(path, -1, size, PollCursor.after(polls.get(polls.size() - 1)).encode()));
+        if(hasPrev && !polls.isEmpty())
+            links.put("prev", pollsUrl(path, -1, size, PollCursor.before(polls.get(0)).encode()));
+        return links;
+    }
+    private static String pollsUrl(String path, int page, int size, String cursor) {
         switch(path) {
             case "public":
-                links.put("first", routes.PollsController.fetchPollsPublic(0, pagedList.getPageSize()).absoluteURL(request(), true));
-                links.put("last", routes.PollsController.fetchPollsPublic((int) Math.ceil((double)pagedList.getTotalRowCount()/pagedList.getPageSize())-1, pagedList.getPageSize()).absoluteURL(request(), true));
-                if(pagedList.hasNext())
-                    links.put("next", routes.PollsController.fetchPollsPublic(pagedList.getPageIndex()+1, pagedList.getPageSize()).absoluteURL(request(), true));
-                if(pagedList.hasPrev())
-                    links.put("prev", routes.PollsController.fetchPollsPublic(pagedList.getPageIndex()-1, pagedList.getPageSize()).absoluteURL(request(), true));
-                break;
-
+                return routes.PollsController.fetchPollsPublic(page, size, cursor).absoluteURL(request(), true);
             case "private":
-                links.put("first", routes.PollsController.fetchPollsPrivate(0, pagedList.getPageSize()).absoluteURL(request(), true));
-                links.put("last", routes.PollsController.fetchPollsPrivate((int) Math.ceil((double)pagedList.getTotalRowCount()/pagedList.getPageSize())-1, pagedList.getPageSize()).absoluteURL(request(), true));
-                if(pagedList.hasNext())
-                    links.put("next", routes.PollsController.fetchPollsPrivate(pagedList.getPageIndex()+1, pagedList.getPageSize()).absoluteURL(request(), true));
-                if(pagedList.hasPrev())
-                    links.put("prev", routes.PollsController.fetchPollsPrivate(pagedList.getPageIndex()-1, pagedList.getPageSize()).absoluteURL(request(), true));
-                break;
-
+                return routes.PollsController.fetchPollsPrivate(page, size, cursor).absoluteURL(request(), true);
             case "created":
-                links.put("first", routes.PollsController.fetchPollsCreated(0, pagedList.getPageSize()).absoluteURL(request(), true));
-                links.put("last", routes.PollsController.fetchPollsCreated((int) Math.ceil((double)pagedList.getTotalRowCount()/pagedList.getPageSize())-1, pagedList.getPageSize()).absoluteURL(request(), true));
-                if(pagedList.hasNext())
-                    links.put("next", routes.PollsController.fetchPollsCreated(pagedList.getPageIndex()+1, pagedList.getPageSize()).absoluteURL(request(), true));
-                if(pagedList.hasPrev())
-                    links.put("prev", routes.PollsController.fetchPollsCreated(pagedList.getPageIndex()-1, pagedList.getPageSize()).absoluteURL(request(), true));
-                break;
-
+                return routes.PollsController.fetchPollsCreated(page, size, cursor).absoluteURL(request(), true);
             default:
-                return null;
+                throw new IllegalArgumentException("Unknown poll feed: " + path);
         }
-
-
-
-        return links;
     }
-    private static void pollSingle(ObjectNode jsonResponseBody, Poll poll) {
+    private void pollSingle(ObjectNode jsonResponseBody, PollView poll) {
         ArrayNode included = Json.newArray();
         included.add(VotersController.userDataObject(poll.creator));
         jsonResponseBody.set("data", pollDataObject(poll));
         jsonResponseBody.set("included", included);
     }
-    private static void pollsPaginated(ObjectNode jsonResponseBody, PagedList<Poll> pagedList, String path) {
+    void pollsPaginated(ObjectNode jsonResponseBody, List<PollView> polls, ObjectNode links) {
         ArrayNode data = Json.newArray();
         ArrayNode included = Json.newArray();
         Set<String> creatorUniqueIds = new HashSet<>();
         // Add all polls from current paged list to the data array but, add
         // only the unique poll creators to the included array per json-api spec.
-        for(Poll poll : pagedList.getList()) {
+        for(PollView poll : polls) {
             if(!creatorUniqueIds.contains(poll.creator.code)) {
                 creatorUniqueIds.add(poll.creator.code);
                 included.add(VotersController.userDataObject(poll.creator));
             }
             data.add(pollDataObject(poll));
         }
-        jsonResponseBody.set("links", pollPaginationLinks(pagedList, path));
+        jsonResponseBody.set("links", links);
         jsonResponseBody.set("data", data);
         jsonResponseBody.set("included", included);
     }
@@ -409,4 +610,4 @@ public class PollsController extends Controller {
         error.put("moreInfo", "https://localhost:9000/documentation#polls");
         errorsArray.add(error);
     }
-}
+}
\ No newline at end of file
@@ -0,0 +1,46 @@
+package controllers;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import play.mvc.Result;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static play.mvc.Results.status;
+
+/**
+ * The 503 answer of the controllers when the database executor or the vote
+ * queue is full. The section is the documentation anchor of the resource.
+ */
+final class ServiceUnavailable {
+
+    private ServiceUnavailable() {
+    }
+
+    /**
+     * Answers a {@link RejectedExecutionException} with a 503, other
+     * failures are thrown again to reach the error handler.
+     */
+    static Result recover(Throwable failure, String section) {
+        Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+        if(!(cause instanceof RejectedExecutionException)) {
+            throw new CompletionException(cause);
+        }
+        ObjectNode jsonResponseBody = play.libs.Json.newObject();
+        ArrayNode errors = play.libs.Json.newArray();
+        requestServiceUnavailable(errors, section);
+        jsonResponseBody.set("errors", errors);
+        return status(503, jsonResponseBody);
+    }
+
+    static void requestServiceUnavailable(ArrayNode errorsArray, String section) {
+        ObjectNode error = play.libs.Json.newObject();
+        error.put("status", 503);
+        error.put("code", 13);
+        error.put("title", "Service unavailable.");
+        error.put("detail", "The server is overloaded. Please retry later.");
+        error.put("moreInfo", "https://localhost:9000/documentation#" + section);
+        errorsArray.add(error);
+    }
+}
@@ -1,227 +1,312 @@
 package controllers;
 
 import javax.inject.Inject;
+import javax.persistence.PersistenceException;
 
 import com.avaje.ebean.Ebean;
+import com.avaje.ebean.Transaction;
+import controllers.requests.RequestBinder;
+import controllers.requests.RequestDocument;
+import controllers.requests.UserAttributes;
+import controllers.requests.Validators;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import models.*;
-import org.mindrot.jbcrypt.BCrypt;
 import play.Configuration;
-import play.Logger;
 import play.libs.Json;
 import play.mvc.*;
-import play.data.*;
 import com.fasterxml.jackson.databind.*;
+import services.DatabaseExecutionContext;
+import services.PasswordHasher;
+import services.TakenIdentifiers;
+import services.TokenCache;
+import services.TokenDenyList;
+import services.TokenVersions;
 
 import java.time.Instant;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.HashMap;
+import java.util.Map;
 
 public class VotersController extends Controller {
 	
-	private final FormFactory formFactory;
 	private final Configuration configuration;
+	private final DatabaseExecutionContext databaseExecutionContext;
+	private final TokenCache tokenCache;
+	private final TokenVersions tokenVersions;
+	private final PasswordHasher passwordHasher;
+	private final TokenDenyList tokenDenyList;
+	private final TakenIdentifiers takenIdentifiers;
 	private final String SECRET_KEY_BASE64_ENCODED;
-	private static Pattern pattern;
-	private static Matcher matcher;
-	private static final String EMAIL_PATTERN = "^[_A-Za-z0-9-\\+]+(\\.[_A-Za-z0-9-]+)*@[A-Za-z0-9-]+(\\.[A-Za-z0-9]+)*(\\.[A-Za-z]{2,})$";
-	private static final String USERNAME_PATTERN = "^[A-Za-z_][A-Za-z0-9_]{5,20}$";
-	private static final String PASSWORD_PATTERN = "^(?=.*[0-9])(?=.*[a-z])(?=.*[A-Z])(?=.*[!@#$%^&+=])(?=\\S+$).{8,20}$";
 
 	@Inject
-	public VotersController(final FormFactory formFactory, Configuration configuration) {
+	public VotersController(Configuration configuration,
+							DatabaseExecutionContext databaseExecutionContext, TokenCache tokenCache,
+							TokenVersions tokenVersions, PasswordHasher passwordHasher,
+							TokenDenyList tokenDenyList, TakenIdentifiers takenIdentifiers) {
 		this.configuration = configuration;
-		this.formFactory = formFactory;
+		this.databaseExecutionContext = databaseExecutionContext;
+		this.tokenCache = tokenCache;
+		this.tokenVersions = tokenVersions;
+		this.passwordHasher = passwordHasher;
+		this.tokenDenyList = tokenDenyList;
+		this.takenIdentifiers = takenIdentifiers;
 		this.SECRET_KEY_BASE64_ENCODED = configuration.getString("jwt.token.key");
 	}
 
-	public Result authenticate() {
-		final JsonNode jsonRequestBody = play.libs.Json.toJson(formFactory.form().bindFromRequest().data());
+	public CompletionStage<Result> authenticate() {
+		return databaseExecutionContext.supplyAsync(this::doAuthenticate).thenCompose(result -> result)
+				.exceptionally(failure -> ServiceUnavailable.recover(failure, "users"));
+	}
+
+	private CompletionStage<Result> doAuthenticate() {
+		final Map<String, String[]> form = authenticationFields(request().body());
 		ObjectNode jsonResponseBody = play.libs.Json.newObject();
 		ArrayNode errors = play.libs.Json.newArray();
 
-		if(jsonRequestBody.size() == 0) {
+		if(form == null || form.isEmpty()) {
 			requestEmptyBody(errors);
 			jsonResponseBody.set("errors", errors);
-			return badRequest(jsonResponseBody);
+			return CompletableFuture.completedFuture(badRequest(jsonResponseBody));
 		}
 
 		boolean exitWithError = false;
 		//Validate login fields.
-		JsonNode grantType = jsonRequestBody.findPath("grant_type");
-		if(grantType.isMissingNode()) {
+		final String grantType = formValue(form, "grant_type");
+		if(grantType == null) {
 			exitWithError = true;
 			requestMissingField(errors, "grant_type");
-		} else if(!isGrantTypeValid(grantType.textValue())) {
+		} else if(!Validators.isGrantTypeValid(grantType)) {
 			exitWithError = true;
 			requestValidationError(errors, "grant_type");
 		}
-		JsonNode username = jsonRequestBody.findPath("username");
-		if(username.isMissingNode()) {
+		final String username = formValue(form, "username");
+		if(username == null) {
 			exitWithError = true;
 			requestMissingField(errors, "username");
 		}
-		JsonNode password = jsonRequestBody.findPath("password");
-		if(password.isMissingNode()) {
+		final String password = formValue(form, "password");
+		if(password == null) {
 			exitWithError = true;
 			requestMissingField(errors, "password");
 		}
 		if(exitWithError) {
 			jsonResponseBody.set("errors", errors);
-			return badRequest(jsonResponseBody);
+			return CompletableFuture.completedFuture(badRequest(jsonResponseBody));
 		}
-		if(!isUsernameValid(username.textValue()) || !isPasswordValid(password.textValue())) {
+		if(!Validators.isUsernameValid(username) || !Validators.isPasswordValid(password)) {
 			requestFailedAuthentication(errors);
 			jsonResponseBody.set("errors", errors);
-			return unauthorized(jsonResponseBody);
+			return CompletableFuture.completedFuture(unauthorized(jsonResponseBody));
 		}
 
-		//Check username/password combination.
-		Voter loginUser = Voter.findVoterByUsername(username.textValue());
-		if(loginUser == null || !BCrypt.checkpw(password.textValue(), loginUser.passwordHash)) {
+		//Check username/password combination, the password on its own executor.
+		Voter loginUser = Voter.findVoterByUsername(username);
+		if(loginUser == null) {
 			requestFailedAuthentication(errors);
 			jsonResponseBody.set("errors", errors);
-			return unauthorized(jsonResponseBody);
+			return CompletableFuture.completedFuture(unauthorized(jsonResponseBody));
 		}
-
-		//Provide a JWT token within the response of a successful login.
-		jsonResponseBody.put("accessToken", Token.createAccessToken(loginUser));
-		jsonResponseBody.put("tokenType", "bearer");
-		return ok(jsonResponseBody);
+		return passwordHasher.verify(password, loginUser.passwordHash).thenCompose(matches -> {
+			if(!matches) {
+				requestFailedAuthentication(errors);
+				jsonResponseBody.set("errors", errors);
+				return CompletableFuture.completedFuture(unauthorized(jsonResponseBody));
+			}
+			//Provide a JWT token within the response of a successful login.
+			return databaseExecutionContext.supplyAsync(() -> {
+				jsonResponseBody.put("accessToken", Token.createAccessToken(loginUser));
+				jsonResponseBody.put("tokenType", "bearer");
+				return ok(jsonResponseBody);
+			});
+		});
 	}
 
 	@With(SecuredAction.class)
-	public Result logout() {
-		return forbidden();
+	public CompletionStage<Result> logout() {
+		//Revoke the token of this request, the voter's other tokens stay valid.
+		Principal principal = (Principal) ctx().args.get("principal");
+		return tokenDenyList.revoke(principal).<Result>thenApply(revoked -> noContent())
+				.exceptionally(failure -> ServiceUnavailable.recover(failure, "users"));
+	}
+
+	@BodyParser.Of(BodyParser.Raw.class)
+	public CompletionStage<Result> createUser() {
+		return databaseExecutionContext.supplyAsync(this::doCreateUser).thenCompose(result -> result)
+				.exceptionally(failure -> ServiceUnavailable.recover(failure, "users"));
 	}
 
-	public Result createUser() {
-		final JsonNode jsonRequestBody = request().body().asJson();
+	private CompletionStage<Result> doCreateUser() {
+		final RequestDocument<UserAttributes> requestDocument = RequestBinder.bindUserDocument(request());
 		ObjectNode jsonResponseBody = play.libs.Json.newObject();
 		ArrayNode errors = play.libs.Json.newArray();
-		Logger.debug("request: "+ jsonRequestBody.toString());
 
-		if(jsonRequestBody.size() == 0) {
+		final UserAttributes attributes = requestDocument == null ? null : requestDocument.attributes();
+		if(attributes == null) {
 			requestEmptyBody(errors);
 			jsonResponseBody.set("errors", errors);
-			return badRequest(jsonResponseBody);
+			return CompletableFuture.completedFuture(badRequest(jsonResponseBody));
 		}
 		boolean exitWithError = false;
 		//Validate all fields and respond with multiple errors.
-		JsonNode email = jsonRequestBody.findPath("email");
-		if(email.isMissingNode()) {
+		if(attributes.email == null) {
 			exitWithError = true;
 			requestMissingField(errors, "email");
-		} else if(!isEmailValid(email.textValue())) {
+		} else if(!Validators.isEmailValid(attributes.email)) {
 			exitWithError = true;
 			requestValidationError(errors, "email");
 		}
-		JsonNode username = jsonRequestBody.findPath("username");
-		if(username.isMissingNode()) {
+		if(attributes.username == null) {
 			exitWithError = true;
 			requestMissingField(errors, "username");
-		} else if(!isUsernameValid(username.textValue())) {
+		} else if(!Validators.isUsernameValid(attributes.username)) {
 			exitWithError = true;
 			requestValidationError(errors, "username");
 		}
-		JsonNode password = jsonRequestBody.findPath("password");
-		if(password.isMissingNode()) {
+		if(attributes.password == null) {
 			exitWithError = true;
 			requestMissingField(errors, "password");
-		} else if(!isPasswordValid(password.textValue())) {
+		} else if(!Validators.isPasswordValid(attributes.password)) {
 			exitWithError = true;
 			requestValidationError(errors, "password");
 		}
 		if(exitWithError) {
 			jsonResponseBody.set("errors", errors);
-			return badRequest(jsonResponseBody);
+			return CompletableFuture.completedFuture(badRequest(jsonResponseBody));
 		}
 
 		//Respond with individual errors in case email/username is already in use.
-		if(!isEmailAvailable(email.textValue())) {
+		if(!isEmailAvailable(attributes.email)) {
 			requestIdentifierInUse(errors, "email");
 			jsonResponseBody.set("errors", errors);
-			return status(409, jsonResponseBody);
+			return CompletableFuture.completedFuture(status(409, jsonResponseBody));
 		}
-		if(!isUsernameAvailable(username.textValue())) {
+		if(!isUsernameAvailable(attributes.username)) {
 			requestIdentifierInUse(errors, "username");
 			jsonResponseBody.set("errors", errors);
-			return status(409, jsonResponseBody);
+			return CompletableFuture.completedFuture(status(409, jsonResponseBody));
 		}
 
 		//Create user and respond with data.
-		Voter registree = new Voter("User", email.textValue(), username.textValue(),
-				BCrypt.hashpw(password.textValue(), BCrypt.gensalt()), null);
-		registree.save();
+		return passwordHasher.hash(attributes.password).thenCompose(passwordHash ->
+				databaseExecutionContext.supplyAsync(() -> {
+					Voter registree = new Voter("User", attributes.email, attributes.username, passwordHash, null);
+					try {
+						registree.save();
+					} catch (PersistenceException e) {
+						if(!Utils.isUniqueViolation(e)) throw e;
+						//Taken concurrently, the unique indexes tell.
+						requestIdentifierInUse(errors, Voter.findVoterByEmail(attributes.email) != null ? "email" : "username");
+						jsonResponseBody.set("errors", errors);
+						return status(409, jsonResponseBody);
+					}
+					takenIdentifiers.emailTaken(registree.email);
+					takenIdentifiers.usernameTaken(registree.username);
 
-		jsonResponseBody.set("data", userDataObject(registree));
-		return created(jsonResponseBody);
+					jsonResponseBody.set("data", userDataObject(registree));
+					return created(jsonResponseBody);
+				}));
 	}
 
 	@With(SecuredAction.class)
-	public Result fetchUserSelf() {
-		Voter user = ((Voter) ctx().args.get("user"));
+	public CompletionStage<Result> fetchUserSelf() {
+		return databaseExecutionContext.supplyAsync(this::doFetchUserSelf)
+				.exceptionally(failure -> ServiceUnavailable.recover(failure, "users"));
+	}
+
+	private Result doFetchUserSelf() {
+		Principal principal = (Principal) ctx().args.get("principal");
 		ObjectNode jsonResponseBody = play.libs.Json.newObject();
+		ArrayNode errors = play.libs.Json.newArray();
 
+		//Loaded explicitly, the token may outlive the account it names.
+		Voter user = Voter.find.byId(principal.id);
+		if(user == null) {
+			requestResourceNotFound(errors, "user");
+			jsonResponseBody.set("errors", errors);
+			return notFound(jsonResponseBody);
+		}
 		jsonResponseBody.set("data", userDataObject(user));
 		return ok(jsonResponseBody);
 	}
 
 	@With(SecuredAction.class)
-	public Result updateUserSelf() {
+	@BodyParser.Of(BodyParser.Raw.class)
+	public CompletionStage<Result> updateUserSelf() {
+		return databaseExecutionContext.supplyAsync(this::doUpdateUserSelf).thenCompose(result -> result)
+				.exceptionally(failure -> ServiceUnavailable.recover(failure, "users"));
+	}
+
+	private CompletionStage<Result> doUpdateUserSelf() {
 		Voter user = ((Voter) ctx().args.get("user"));
-		final JsonNode jsonRequestBody = request().body().asJson();
+		final RequestDocument<UserAttributes> requestDocument = RequestBinder.bindUserDocument(request());
 		ObjectNode jsonResponseBody = play.libs.Json.newObject();
 		ArrayNode errors = play.libs.Json.newArray();
 
-		if(jsonRequestBody.size() == 0) {
+		final UserAttributes attributes = requestDocument == null ? null : requestDocument.attributes();
+		if(attributes == null) {
 			requestEmptyBody(errors);
 			jsonResponseBody.set("errors", errors);
-			return badRequest(jsonResponseBody);
+			return CompletableFuture.completedFuture(badRequest(jsonResponseBody));
 		}
 		//Confirm authentication.
-		JsonNode password = jsonRequestBody.findPath("password");
-		if(password.isMissingNode()) {
+		if(attributes.password == null) {
 			requestMissingField(errors, "password");
 			jsonResponseBody.set("errors", errors);
-			return badRequest(jsonResponseBody);
-		} else if(!BCrypt.checkpw(password.textValue(), user.passwordHash) ) {
-			requestFailedAuthentication(errors);
-			jsonResponseBody.set("errors", errors);
-			return unauthorized(jsonResponseBody);
+			return CompletableFuture.completedFuture(badRequest(jsonResponseBody));
 		}
-		boolean updateEmail = false;
-		boolean updatePassword = false;
-		boolean exitWithError = false;
-		//Validate all fields and respond with multiple errors.
-		JsonNode newEmail = jsonRequestBody.findPath("newEmail");
-		if(!newEmail.isMissingNode()) {
-			updateEmail = true;
-			if(!isEmailValid(newEmail.textValue())) {
-				requestValidationError(errors ,newEmail.textValue());
-				exitWithError = true;
+		return passwordHasher.verify(attributes.password, user.passwordHash).thenCompose(matches -> {
+			if(!matches) {
+				requestFailedAuthentication(errors);
+				jsonResponseBody.set("errors", errors);
+				return CompletableFuture.completedFuture(unauthorized(jsonResponseBody));
 			}
-		}
-		JsonNode newPassword = jsonRequestBody.findPath("newPassword");
-		if(!newPassword.isMissingNode()) {
-			updatePassword = true;
-			if(!isPasswordValid(newPassword.textValue())) {
-				requestValidationError(errors, newPassword.textValue());
-				exitWithError = true;
+			boolean exitWithError = false;
+			//Validate all fields and respond with multiple errors.
+			if(attributes.newEmail != null) {
+				if(!Validators.isEmailValid(attributes.newEmail)) {
+					requestValidationError(errors ,attributes.newEmail);
+					exitWithError = true;
+				}
 			}
-		}
-		if(exitWithError) {
-			jsonResponseBody.set("errors", errors);
-			return  badRequest(jsonResponseBody);
-		}
+			if(attributes.newPassword != null) {
+				if(!Validators.isPasswordValid(attributes.newPassword)) {
+					requestValidationError(errors, attributes.newPassword);
+					exitWithError = true;
+				}
+			}
+			if(exitWithError) {
+				jsonResponseBody.set("errors", errors);
+				return CompletableFuture.completedFuture(badRequest(jsonResponseBody));
+			}
+
+			CompletionStage<String> newPasswordHash = attributes.newPassword == null
+					? CompletableFuture.<String>completedFuture(null) : passwordHasher.hash(attributes.newPassword);
+			return newPasswordHash.thenCompose(passwordHash -> databaseExecutionContext.supplyAsync(() ->
+					updateUserFields(user, attributes.newEmail, passwordHash)));
+		});
+	}
+
+	private Result updateUserFields(Voter user, String newEmail, String newPasswordHash) {
+		ObjectNode jsonResponseBody = play.libs.Json.newObject();
+		ArrayNode errors = play.libs.Json.newArray();
 
 		//Update user's fields.
-		if(updateEmail) {
-			if(isEmailAvailable(newEmail.textValue())) {
-				user.email = newEmail.textValue();
+		if(newEmail != null) {
+			if(isEmailAvailable(newEmail)) {
+				user.email = newEmail;
 				user.timeUpdated = Instant.now();
-				user.update();
+				try {
+					user.update();
+				} catch (PersistenceException e) {
+					if(!Utils.isUniqueViolation(e)) throw e;
+					requestIdentifierInUse(errors, "newEmail");
+					jsonResponseBody.set("errors", errors);
+					return status(409, jsonResponseBody);
+				}
+				takenIdentifiers.emailTaken(newEmail);
+				tokenCache.invalidateVoter(user.id);
 			}
 			else {
 				requestIdentifierInUse(errors, "newEmail");
@@ -229,10 +314,21 @@ public class VotersController extends Controller {
 				return status(409, jsonResponseBody);
 			}
 		}
-		if(updatePassword) {
-			user.passwordHash = BCrypt.hashpw(newPassword.textValue(), BCrypt.gensalt());
+		if(newPasswordHash != null) {
+			user.passwordHash = newPasswordHash;
 			user.timeUpdated = Instant.now();
-			user.update();
+			//Revoke the tokens issued with the old password, the version is
+			//incremented in the database so racing changes are not lost.
+			Transaction transaction = Ebean.beginTransaction();
+			try {
+				user.update();
+				user.tokenVersion = Voter.incrementTokenVersion(user.id);
+				transaction.commit();
+			} finally {
+				transaction.end();
+			}
+			tokenVersions.update(user.id, user.tokenVersion);
+			tokenCache.invalidateVoter(user.id);
 		}
 
 		jsonResponseBody.set("data", userDataObject(user));
@@ -251,34 +347,35 @@ public class VotersController extends Controller {
 		return forbidden();
 	}
 
-	private static boolean isEmailValid(String email) {
-		if(email == null) return false;
-		pattern = Pattern.compile(EMAIL_PATTERN);
-		matcher = pattern.matcher(email);
-		return matcher.matches();
-	}
-	private static boolean isUsernameValid(String username) {
-		if(username == null) return false;
-		pattern = Pattern.compile(USERNAME_PATTERN);
-		matcher = pattern.matcher(username);
-		return matcher.matches();
-	}
-	private static boolean isPasswordValid(String password) {
-		if(password == null) return false;
-		pattern = Pattern.compile(PASSWORD_PATTERN);
-		matcher = pattern.matcher(password);
-		return matcher.matches();
+	/**
+	 * @return The fields of a form encoded body, or the top level fields of a
+	 * JSON one. Null if the body has neither.
+	 */
+	private static Map<String, String[]> authenticationFields(Http.RequestBody body) {
+		Map<String, String[]> form = body.asFormUrlEncoded();
+		if(form != null) return form;
+		JsonNode json = body.asJson();
+		if(json == null || !json.isObject()) return null;
+		Map<String, String[]> fields = new HashMap<>();
+		json.fields().forEachRemaining(field -> {
+			if(field.getValue().isValueNode()) {
+				fields.put(field.getKey(), new String[] { field.getValue().asText() });
+			}
+		});
+		return fields;
 	}
-	private static boolean isGrantTypeValid(String grantType) {
-		return grantType.equals("password");
+	private static String formValue(Map<String, String[]> form, String field) {
+		String[] values = form.get(field);
+		return values == null || values.length == 0 ? null : values[0];
 	}
-	private static boolean isEmailAvailable(String email) {
+	private boolean isEmailAvailable(String email) {
 		//Use this method after validation or perform a null check on email.
-		return (Voter.findVoterByEmail(email) == null);
+		//Only emails the filter might have seen are looked up.
+		return !takenIdentifiers.mightBeEmailTaken(email) || Voter.findVoterByEmail(email) == null;
 	}
-	private static boolean isUsernameAvailable(String username) {
+	private boolean isUsernameAvailable(String username) {
 		//Use this method after validation or perform a null check on email.
-		return (Voter.findVoterByUsername(username) == null);
+		return !takenIdentifiers.mightBeUsernameTaken(username) || Voter.findVoterByUsername(username) == null;
 	}
 
 	public static ObjectNode userDataObject(Voter user) {
@@ -345,4 +442,13 @@ public class VotersController extends Controller {
 		error.put("moreInfo", "https://localhost:9000/documentation#users");
 		errorsArray.add(error);
 	}
+	private static void requestResourceNotFound(ArrayNode errorsArray, String resource) {
+		ObjectNode error = play.libs.Json.newObject();
+		error.put("status", 404);
+		error.put("code", 8);
+		error.put("title", "Resource " + resource + " not found.");
+		error.put("detail", "There was no " + resource + " found with the supplied id.");
+		error.put("moreInfo", "https://localhost:9000/documentation#users");
+		errorsArray.add(error);
+	}
 }
\ No newline at end of file
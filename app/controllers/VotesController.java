@@ -1,136 +1,184 @@
 package controllers;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import controllers.requests.PollAttributes;
+import controllers.requests.RequestBinder;
+import controllers.requests.RequestDocument;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import models.*;
 import play.Configuration;
 import play.Logger;
 import play.libs.Json;
+import play.libs.concurrent.HttpExecutionContext;
+import play.mvc.BodyParser;
 import play.mvc.Controller;
 import play.mvc.Result;
 import play.mvc.With;
+import services.Ballot;
+import services.DatabaseExecutionContext;
+import services.OptionResolver;
+import services.VoteConflictException;
+import services.VoteIngestionQueue;
 
 import javax.inject.Inject;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
 
 public class VotesController extends Controller {
 
     private final Configuration configuration;
+    private final VoteIngestionQueue voteIngestionQueue;
+    private final OptionResolver optionResolver;
+    private final DatabaseExecutionContext databaseExecutionContext;
+    private final HttpExecutionContext httpExecutionContext;
     private final String SECRET_KEY_BASE64_ENCODED;
 
     @Inject
-    public VotesController(Configuration configuration) {
+    public VotesController(Configuration configuration, VoteIngestionQueue voteIngestionQueue,
+                           OptionResolver optionResolver, DatabaseExecutionContext databaseExecutionContext,
+                           HttpExecutionContext httpExecutionContext) {
         this.configuration = configuration;
+        this.voteIngestionQueue = voteIngestionQueue;
+        this.optionResolver = optionResolver;
+        this.databaseExecutionContext = databaseExecutionContext;
+        this.httpExecutionContext = httpExecutionContext;
         this.SECRET_KEY_BASE64_ENCODED = configuration.getString("jwt.token.key");
     }
 
     @With(SecuredAction.class)
-    public Result createVote() {
+    @BodyParser.Of(BodyParser.Raw.class)
+    public CompletionStage<Result> createVote() {
+        //Validation runs on the database executor, the commit itself on the vote committers.
+        return databaseExecutionContext.supplyAsync(this::doCreateVote)
+                .thenCompose(result -> result)
+                .exceptionally(failure -> ServiceUnavailable.recover(failure, "votes"));
+    }
+
+    private CompletionStage<Result> doCreateVote() {
         Voter user = (Voter) ctx().args.get("user");
-        final JsonNode jsonRequestBody = request().body().asJson();
+        Principal principal = (Principal) ctx().args.get("principal");
+        final RequestDocument<PollAttributes> requestDocument = RequestBinder.bindPollDocument(request());
         ObjectNode jsonResponseBody = play.libs.Json.newObject();
         ArrayNode errors = play.libs.Json.newArray();
-        Logger.debug("request: "+ jsonRequestBody.toString());
 
-        if(jsonRequestBody.size() == 0) {
+        if(requestDocument == null || requestDocument.data == null) {
             requestEmptyBody(errors);
             jsonResponseBody.set("errors", errors);
-            return badRequest(jsonResponseBody);
+            return completedFuture(badRequest(jsonResponseBody));
         }
 
         boolean exitWithError = false;
         //Validate all fields and respond with multiple errors.
-        JsonNode pollId = jsonRequestBody.findPath("poll").findPath("data").get("id");
-        if(pollId.isMissingNode()) {
+        final String pollId = requestDocument.relationshipId("poll");
+        if(pollId == null) {
             exitWithError = true;
             requestMissingField(errors, "poll id");
         }
-        JsonNode optionIds = jsonRequestBody.findPath("options");
-        if(optionIds.isMissingNode() || !optionIds.isArray() || optionIds.size() < 1) {
+        final PollAttributes includedPoll = requestDocument.includedAttributes("polls");
+        final List<PollAttributes.OptionAttributes> optionIds = includedPoll == null ? null : includedPoll.options;
+        if(optionIds == null || optionIds.size() < 1) {
             exitWithError = true;
             requestMissingField(errors, "options");
         }
         if(exitWithError) {
             jsonResponseBody.set("errors", errors);
-            return badRequest(jsonResponseBody);
+            return completedFuture(badRequest(jsonResponseBody));
         }
 
-        //Respond with individual errors.
-        Poll poll = Poll.findPollByCode(pollId.textValue());
+        //Respond with individual errors. The poll, the participation and the
+        //existing vote are checked with a single query.
+        PollVoteStatus poll = PollVoteStatus.findPollVoteStatus(pollId, user.id);
         if(poll == null) {
             requestResourceNotFound(errors, "poll");
             jsonResponseBody.set("errors", errors);
-            return notFound(jsonResponseBody);
+            return completedFuture(notFound(jsonResponseBody));
         }
         //Check if user has been invited.
-        Participation participation = Participation.findParticipationByIds(user.id, poll.id);
         if(poll.visibility.equals("Private")) {
-            if(participation == null) {
+            if(!poll.participated) {
                 requestResourceForbidden(errors, "poll");
                 jsonResponseBody.set("errors", errors);
-                return forbidden(jsonResponseBody);
+                return completedFuture(forbidden(jsonResponseBody));
             }
         }
         //Check if already voted.
-        Vote vote = Vote.findVoteByIds(user.id, poll.id);
-        if(vote != null) {
+        if(poll.voted) {
             requestResourceConflict(errors, "vote");
             jsonResponseBody.set("errors", errors);
-            return status(409, jsonResponseBody);
+            return completedFuture(status(409, jsonResponseBody));
         }
         //Check if poll has expired.
         if(Instant.now().isAfter(poll.expiration)) {
             requestResourceExpired(errors, "poll");
             jsonResponseBody.set("errors", errors);
-            return badRequest(jsonResponseBody);
-        }
-        if(poll.visibility.equals("Public")) {
-            if(participation == null) {
-                //Create a participation.
-                participation = new Participation(user, poll);
-                participation.save();
-            }
+            return completedFuture(badRequest(jsonResponseBody));
         }
-        //Validate options.
+        //Voters of public polls participate by default, the participation is saved along with the vote.
+        boolean joinPoll = poll.visibility.equals("Public") && !poll.participated;
+        //Validate options against all options of the poll, fetched at once.
+        Map<String, Long> pollOptions = optionResolver.optionIdsByCode(poll.pollId);
         if(poll.mode.equals("Single")) {
             if(optionIds.size() != 1) {
                 requestInvalidOptionCount(errors);
                 jsonResponseBody.set("errors", errors);
-                return badRequest(jsonResponseBody);
+                return completedFuture(badRequest(jsonResponseBody));
             }
         } else {
-            if(optionIds.size() < 1 || optionIds.size() > poll.options.size()) {
+            if(optionIds.size() < 1 || optionIds.size() > pollOptions.size()) {
                 requestInvalidOptionCount(errors);
                 jsonResponseBody.set("errors", errors);
-                return badRequest(jsonResponseBody);
+                return completedFuture(badRequest(jsonResponseBody));
             }
         }
-        List<Option> options = new ArrayList<>();
-        for(JsonNode optionId : optionIds) {
-            Option option = Option.findOptionByCode(optionId.get("id").textValue());
-            if(option == null || !option.poll.id.equals(poll.id)) {
+        List<Long> options = new ArrayList<>();
+        Set<Long> chosenOptions = new HashSet<>();
+        for(PollAttributes.OptionAttributes optionId : optionIds) {
+            Long option = optionId.id == null ? null : pollOptions.get(optionId.id);
+            if(option == null) {
                 requestResourceNotFound(errors, "option");
                 jsonResponseBody.set("errors", errors);
-                return notFound(jsonResponseBody);
+                return completedFuture(notFound(jsonResponseBody));
+            }
+            if(!chosenOptions.add(option)) {
+                requestValidationError(errors, "options");
+                jsonResponseBody.set("errors", errors);
+                return completedFuture(badRequest(jsonResponseBody));
             }
             options.add(option);
         }
 
-        //Submit vote.
-        vote = new Vote(user, poll);
-        vote.save();
-
-        for(Option option : options) {
-            option.votes++;
-            option.timeUpdated = Instant.now();
-            option.update();
-        }
-
-        jsonResponseBody.set("data", voteDataObject(vote));
-        return created(jsonResponseBody);
+        //Submit vote, it is committed along with other ballots of the same moment.
+        final String pollCode = poll.pollCode;
+        final String userCode = principal.code;
+        Ballot ballot = new Ballot(user, poll.pollReference(), options, joinPoll);
+        return voteIngestionQueue.submit(ballot).handleAsync((newVote, failure) -> {
+            if(failure == null) {
+                jsonResponseBody.set("data", voteDataObject(newVote, pollCode, userCode));
+                return created(jsonResponseBody);
+            }
+            Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+            if(cause instanceof VoteConflictException) {
+                requestResourceConflict(errors, "vote");
+                jsonResponseBody.set("errors", errors);
+                return status(409, jsonResponseBody);
+            }
+            if(cause instanceof RejectedExecutionException) {
+                ServiceUnavailable.requestServiceUnavailable(errors, "votes");
+                jsonResponseBody.set("errors", errors);
+                return status(503, jsonResponseBody);
+            }
+            throw new CompletionException(cause);
+        }, httpExecutionContext.current());
     }
 
     @With(SecuredAction.class)
@@ -138,7 +186,7 @@ public class VotesController extends Controller {
         return forbidden();
     }
 
-    private static ObjectNode voteDataObject(Vote vote) {
+    private static ObjectNode voteDataObject(Vote vote, String pollCode, String userCode) {
         ObjectNode resource = Json.newObject();
         //Resource type and id.
         resource.put("type", "votes");
@@ -154,24 +202,24 @@ public class VotesController extends Controller {
         ObjectNode poll = Json.newObject();
         //Poll links.
         ObjectNode pollLinks = Json.newObject();
-        pollLinks.put("self", routes.PollsController.fetchPoll(vote.poll.code).absoluteURL(request(), true));
+        pollLinks.put("self", routes.PollsController.fetchPoll(pollCode).absoluteURL(request(), true));
         poll.set("links", pollLinks);
         //Poll data.
         ObjectNode pollData = Json.newObject();
         pollData.put("type", "polls");
-        pollData.put("id", vote.poll.code);
+        pollData.put("id", pollCode);
         poll.set("data", pollData);
         relationships.set("poll", poll);
         //User relationships.
         ObjectNode user = Json.newObject();
         //User links.
         ObjectNode userLinks = Json.newObject();
-        userLinks.put("self", routes.VotersController.fetchUser(vote.voter.code).absoluteURL(request(), true));
+        userLinks.put("self", routes.VotersController.fetchUser(userCode).absoluteURL(request(), true));
         user.set("links", userLinks);
         //User data.
         ObjectNode userData = Json.newObject();
         userData.put("type", "users");
-        userData.put("id", vote.voter.code);
+        userData.put("id", userCode);
         user.set("data", userData);
         relationships.set("user", user);
         resource.set("relationships", relationships);
@@ -200,6 +248,15 @@ public class VotesController extends Controller {
         error.put("moreInfo", "https://localhost:9000/documentation#votes");
         errorsArray.add(error);
     }
+    private static void requestValidationError(ArrayNode errorsArray, String field) {
+        ObjectNode error = play.libs.Json.newObject();
+        error.put("status", 422);
+        error.put("code", 3);
+        error.put("title", "Invalid " + field + ".");
+        error.put("detail", "The json value for " + field + " is invalid.");
+        error.put("moreInfo", "https://localhost:9000/documentation#votes");
+        errorsArray.add(error);
+    }
     private static void requestResourceForbidden(ArrayNode errorsArray, String resource) {
         ObjectNode error = play.libs.Json.newObject();
         error.put("status", 403);
@@ -0,0 +1,27 @@
+package controllers.requests;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.List;
+
+/**
+ * The attributes of polls sent on creation and as included polls of
+ * votes, which only carry the chosen options.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public final class PollAttributes {
+
+    public String visibility;
+    public String mode;
+    public String question;
+    //Days until the poll expires.
+    public Integer expiration;
+    public List<OptionAttributes> options;
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static final class OptionAttributes {
+
+        public String id;
+        public String option;
+    }
+}
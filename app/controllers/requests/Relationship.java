@@ -0,0 +1,16 @@
+package controllers.requests;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public final class Relationship {
+
+    public ResourceIdentifier data;
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static final class ResourceIdentifier {
+
+        public String type;
+        public String id;
+    }
+}
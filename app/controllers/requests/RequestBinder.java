@@ -0,0 +1,59 @@
+package controllers.requests;
+
+import akka.util.ByteString;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import play.Logger;
+import play.libs.Json;
+import play.mvc.Http;
+
+import java.io.IOException;
+
+/**
+ * This class binds json request bodies straight into typed request
+ * documents with Jackson's streaming parser, without building a tree of
+ * the body first. The readers are immutable and shared by all requests.
+ *
+ * Actions that use it parse their body with
+ * <code>@BodyParser.Of(BodyParser.Raw.class)</code>.
+ */
+public final class RequestBinder {
+
+    //Larger bodies are refused, no valid request comes close.
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+
+    private static final ObjectReader USER_READER =
+            Json.mapper().readerFor(new TypeReference<RequestDocument<UserAttributes>>() {});
+    private static final ObjectReader POLL_READER =
+            Json.mapper().readerFor(new TypeReference<RequestDocument<PollAttributes>>() {});
+
+    private RequestBinder() {}
+
+    /**
+     * @return The bound document, or null if the body is empty or is not
+     * a json document of the expected shape.
+     */
+    public static RequestDocument<UserAttributes> bindUserDocument(Http.Request request) {
+        return bind(request, USER_READER);
+    }
+
+    /**
+     * @see #bindUserDocument(Http.Request)
+     */
+    public static RequestDocument<PollAttributes> bindPollDocument(Http.Request request) {
+        return bind(request, POLL_READER);
+    }
+
+    private static <T> T bind(Http.Request request, ObjectReader reader) {
+        Http.RawBuffer rawBuffer = request.body().asRaw();
+        ByteString body = rawBuffer == null ? null : rawBuffer.asBytes(MAX_BODY_BYTES);
+        if(body == null || body.isEmpty()) return null;
+        try {
+            return reader.readValue(new ByteBufferBackedInputStream(body.asByteBuffer()));
+        } catch (IOException e) {
+            Logger.debug("Could not bind request body: " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package controllers.requests;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.List;
+
+/**
+ * A json-api request document, bound straight from the request body by
+ * {@link RequestBinder}.
+ *
+ * @param <A> The attributes of the resources of the document.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public final class RequestDocument<A> {
+
+    public Resource<A> data;
+    public List<Resource<A>> included;
+
+    /**
+     * @return The attributes of the primary resource, or null if it has none.
+     */
+    public A attributes() {
+        return data == null ? null : data.attributes;
+    }
+
+    /**
+     * @return The id of the resource a relationship of the primary resource
+     * points to, or null if it is missing.
+     */
+    public String relationshipId(String name) {
+        if(data == null || data.relationships == null) return null;
+        Relationship relationship = data.relationships.get(name);
+        return relationship == null || relationship.data == null ? null : relationship.data.id;
+    }
+
+    /**
+     * @return The attributes of the first included resource of the type, or
+     * null if there is none.
+     */
+    public A includedAttributes(String type) {
+        if(included == null) return null;
+        for(Resource<A> resource : included) {
+            if(type.equals(resource.type)) return resource.attributes;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,14 @@
+package controllers.requests;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.Map;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public final class Resource<A> {
+
+    public String type;
+    public String id;
+    public A attributes;
+    public Map<String, Relationship> relationships;
+}
@@ -0,0 +1,17 @@
+package controllers.requests;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * The attributes of users sent on registration, on updates and as
+ * included users of participations.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public final class UserAttributes {
+
+    public String email;
+    public String username;
+    public String password;
+    public String newEmail;
+    public String newPassword;
+}
@@ -0,0 +1,72 @@
+package controllers.requests;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * The field validators of the request documents. Patterns are compiled
+ * once and are safe to share, every call gets its own matcher.
+ */
+public final class Validators {
+
+    private static final Pattern EMAIL_PATTERN =
+            Pattern.compile("^[_A-Za-z0-9-\\+]+(\\.[_A-Za-z0-9-]+)*@[A-Za-z0-9-]+(\\.[A-Za-z0-9]+)*(\\.[A-Za-z]{2,})$");
+    private static final Pattern USERNAME_PATTERN =
+            Pattern.compile("^[A-Za-z_][A-Za-z0-9_]{5,20}$");
+    private static final Pattern PASSWORD_PATTERN =
+            Pattern.compile("^(?=.*[0-9])(?=.*[a-z])(?=.*[A-Z])(?=.*[!@#$%^&+=])(?=\\S+$).{8,20}$");
+
+    private static final Set<String> POLL_VISIBILITY_SET =
+            Collections.unmodifiableSet(new HashSet<>(Arrays.asList("Public", "Private")));
+    private static final Set<String> POLL_MODE_SET =
+            Collections.unmodifiableSet(new HashSet<>(Arrays.asList("Single", "Multiple")));
+    private static final int POLL_MIN_QUESTION_CHARS = 8;
+    private static final int POLL_MAX_QUESTION_CHARS = 250;
+    private static final int POLL_MIN_OPTION_CHARS = 1;
+    private static final int POLL_MAX_OPTION_CHARS = 100;
+    private static final int POLL_MIN_EXPIRATION_DAYS = 1;
+    private static final int POLL_MAX_EXPIRATION_DAYS = 30;
+    public static final int POLL_MIN_OPTIONS = 2;
+
+    private Validators() {}
+
+    public static boolean isEmailValid(String email) {
+        return email != null && EMAIL_PATTERN.matcher(email).matches();
+    }
+
+    public static boolean isUsernameValid(String username) {
+        return username != null && USERNAME_PATTERN.matcher(username).matches();
+    }
+
+    public static boolean isPasswordValid(String password) {
+        return password != null && PASSWORD_PATTERN.matcher(password).matches();
+    }
+
+    public static boolean isGrantTypeValid(String grantType) {
+        return "password".equals(grantType);
+    }
+
+    public static boolean isPollVisibilityValid(String visibility) {
+        return visibility != null && POLL_VISIBILITY_SET.contains(visibility);
+    }
+
+    public static boolean isPollModeValid(String mode) {
+        return mode != null && POLL_MODE_SET.contains(mode);
+    }
+
+    public static boolean isPollQuestionLengthValid(String question) {
+        return question != null
+                && question.length() >= POLL_MIN_QUESTION_CHARS && question.length() <= POLL_MAX_QUESTION_CHARS;
+    }
+
+    public static boolean isPollExpirationValid(int expiration) {
+        return expiration >= POLL_MIN_EXPIRATION_DAYS && expiration <= POLL_MAX_EXPIRATION_DAYS;
+    }
+
+    public static boolean isPollOptionLengthValid(String option) {
+        return option != null && option.length() >= POLL_MIN_OPTION_CHARS && option.length() <= POLL_MAX_OPTION_CHARS;
+    }
+}
@@ -0,0 +1,194 @@
+package filters;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import akka.stream.Materializer;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.jsonwebtoken.Claims;
+import models.Principal;
+import models.Token;
+import play.Configuration;
+import play.inject.ApplicationLifecycle;
+import play.libs.Json;
+import play.mvc.*;
+import play.mvc.Http.RequestHeader;
+import scala.concurrent.duration.Duration;
+import services.Metrics;
+import services.TokenCache;
+
+import javax.inject.*;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * This filter limits how often a single client may call the expensive
+ * endpoints configured under <code>voteapp.rate-limit.routes</code>. Every
+ * request of a limited route takes a token from the bucket of its client
+ * address and, if it carries a valid access token, from the bucket of that
+ * token's voter as well, so all tokens of a voter share one bucket.
+ * Requests that find a bucket empty are answered with 429 and a
+ * <code>Retry-After</code> header.
+ *
+ * A bucket is kept as a single timestamp, the time at which it would be
+ * full again, and updated with one compare-and-set, so checking a request
+ * takes no lock. Buckets that have been full for the idle timeout are
+ * dropped, dropping a full bucket loses nothing.
+ */
+@Singleton
+public class RateLimitFilter extends Filter {
+
+    private final boolean enabled;
+    private final Map<String, RouteLimit> routeLimits = new HashMap<>();
+    private final TokenCache tokenCache;
+    private final Metrics metrics;
+
+    @Inject
+    public RateLimitFilter(Materializer mat, Configuration configuration, ActorSystem actorSystem,
+                           TokenCache tokenCache, Metrics metrics, ApplicationLifecycle appLifecycle) {
+        super(mat);
+        this.tokenCache = tokenCache;
+        this.metrics = metrics;
+        this.enabled = configuration.getBoolean("voteapp.rate-limit.enabled", true);
+        for(Configuration route : configuration.getConfigList("voteapp.rate-limit.routes", Collections.emptyList())) {
+            RouteLimit limit = new RouteLimit(
+                    route.getConfig("per-ip") == null ? null : new BucketLimit(route.getConfig("per-ip")),
+                    route.getConfig("per-user") == null ? null : new BucketLimit(route.getConfig("per-user")));
+            routeLimits.put(route.getString("method") + " " + route.getString("path"), limit);
+        }
+        metrics.gauge("rateLimit.buckets", () -> routeLimits.values().stream().mapToLong(RouteLimit::size).sum());
+
+        long idleNanos = TimeUnit.MILLISECONDS.toNanos(
+                configuration.getMilliseconds("voteapp.rate-limit.idle-timeout", 600000L));
+        Cancellable eviction = actorSystem.scheduler().schedule(
+                Duration.create(1, TimeUnit.MINUTES),
+                Duration.create(1, TimeUnit.MINUTES),
+                () -> routeLimits.values().forEach(limit -> limit.evictIdle(System.nanoTime() - idleNanos)),
+                actorSystem.dispatcher());
+        appLifecycle.addStopHook(() -> {
+            eviction.cancel();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    @Override
+    public CompletionStage<Result> apply(
+        Function<RequestHeader, CompletionStage<Result>> next,
+        RequestHeader requestHeader) {
+
+        RouteLimit limit = enabled ? routeLimits.get(requestHeader.method() + " " + requestHeader.path()) : null;
+        if(limit == null) {
+            return next.apply(requestHeader);
+        }
+        long now = System.nanoTime();
+        long waitNanos = limit.perIp == null ? 0 : limit.perIp.acquire(limit.ipBuckets, requestHeader.remoteAddress(), now);
+        String user = limit.perUser == null ? null : userKey(requestHeader);
+        if(waitNanos == 0 && user != null) {
+            waitNanos = limit.perUser.acquire(limit.userBuckets, user, now);
+        }
+        if(waitNanos > 0) {
+            metrics.increment("rateLimit.rejected");
+            return CompletableFuture.completedFuture(tooManyRequests(waitNanos));
+        }
+        return next.apply(requestHeader);
+    }
+
+    /**
+     * @return The code of the voter of the bearer token, taken from the
+     * token cache or the verified claims so that a forged token can not
+     * drain another voter's bucket. Tokens that fail verification have no
+     * voter bucket, the action refuses them.
+     */
+    private String userKey(RequestHeader requestHeader) {
+        String authorization = requestHeader.getHeader("Authorization");
+        if(authorization == null) return null;
+        String[] authorizationHeader = authorization.trim().split("\\s+");
+        if(authorizationHeader.length != 2 || !authorizationHeader[0].equals("bearer")) return null;
+        Principal principal = tokenCache.get(authorizationHeader[1]);
+        if(principal != null) return principal.code;
+        Claims claims = Token.verifyAccessToken(authorizationHeader[1]);
+        return claims == null ? null : claims.getSubject();
+    }
+
+    private static Result tooManyRequests(long waitNanos) {
+        long retryAfterSeconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999999999L));
+        ObjectNode jsonResponseBody = Json.newObject();
+        ArrayNode errors = Json.newArray();
+        ObjectNode error = Json.newObject();
+        error.put("status", 429);
+        error.put("code", 14);
+        error.put("title", "Too many requests.");
+        error.put("detail", "The request limit was reached, retry after " + retryAfterSeconds + " seconds.");
+        error.put("moreInfo", "https://localhost:9000/documentation");
+        errors.add(error);
+        jsonResponseBody.set("errors", errors);
+        return Results.status(429, jsonResponseBody).withHeader("Retry-After", String.valueOf(retryAfterSeconds));
+    }
+
+    private static final class RouteLimit {
+
+        final BucketLimit perIp;
+        final BucketLimit perUser;
+        final ConcurrentMap<String, AtomicLong> ipBuckets = new ConcurrentHashMap<>();
+        final ConcurrentMap<String, AtomicLong> userBuckets = new ConcurrentHashMap<>();
+
+        RouteLimit(BucketLimit perIp, BucketLimit perUser) {
+            this.perIp = perIp;
+            this.perUser = perUser;
+        }
+
+        long size() {
+            return ipBuckets.size() + userBuckets.size();
+        }
+
+        void evictIdle(long fullBefore) {
+            ipBuckets.values().removeIf(bucket -> bucket.get() < fullBefore);
+            userBuckets.values().removeIf(bucket -> bucket.get() < fullBefore);
+        }
+    }
+
+    private static final class BucketLimit {
+
+        //Time to refill one token.
+        final long tokenNanos;
+        //How far the full time may lie ahead, the capacity minus one token.
+        final long burstNanos;
+
+        BucketLimit(Configuration configuration) {
+            this.tokenNanos = (long) (TimeUnit.SECONDS.toNanos(1) / configuration.getDouble("refill-per-second"));
+            this.burstNanos = tokenNanos * (configuration.getInt("capacity") - 1);
+        }
+
+        /**
+         * Takes a token from the key's bucket.
+         *
+         * @return 0 if a token was taken, otherwise the nanoseconds until
+         * the next token is available.
+         */
+        long acquire(ConcurrentMap<String, AtomicLong> buckets, String key, long now) {
+            AtomicLong bucket = buckets.get(key);
+            if(bucket == null) {
+                bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+            }
+            while(true) {
+                long fullAt = bucket.get();
+                long start = Math.max(fullAt, now);
+                long waitNanos = start - now - burstNanos;
+                if(waitNanos > 0) {
+                    return waitNanos;
+                }
+                if(bucket.compareAndSet(fullAt, start + tokenNanos)) {
+                    return 0;
+                }
+            }
+        }
+    }
+}
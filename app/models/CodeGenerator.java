@@ -0,0 +1,122 @@
+package models;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * This class generates the public codes of resources without checking
+ * them against the database. Every code is a distinct 64 bit value,
+ * encrypted with a secret key and written as 11 base62 characters.
+ * Encryption is a permutation of the 64 bit values, so distinct values
+ * never give the same code, while consecutive values give codes that
+ * cannot be told apart from random ones.
+ *
+ * The key is derived from a configured secret, see {@link #keyOf(String)};
+ * anyone who knows it can tell the order of codes and predict new ones.
+ *
+ * Values are handed out from blocks of the <code>public_code_block_seq</code>
+ * sequence, so servers never share a value and only one query is made
+ * per block. Codes created before this generator are 5 characters long
+ * and can therefore not collide with its codes, they stay valid as they
+ * are.
+ */
+public final class CodeGenerator {
+
+	public static final int CODE_LENGTH = 11;
+
+	//Values per block, the rest of a block is lost on restart.
+	private static final int BLOCK_BITS = 20;
+	private static final int KEY_BYTES = 16;
+	private static final char[] CHARSET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+
+	private final LongSupplier blocks;
+	private final ThreadLocal<Cipher> ciphers;
+	private volatile Block block;
+
+	CodeGenerator(byte[] key, LongSupplier blocks) {
+		this.blocks = blocks;
+		SecretKeySpec keySpec = new SecretKeySpec(key, "Blowfish");
+		//Blowfish has 64 bit blocks, one block without padding is a permutation.
+		this.ciphers = ThreadLocal.withInitial(() -> {
+			try {
+				Cipher cipher = Cipher.getInstance("Blowfish/ECB/NoPadding");
+				cipher.init(Cipher.ENCRYPT_MODE, keySpec);
+				return cipher;
+			} catch (GeneralSecurityException e) {
+				throw new IllegalStateException("Blowfish is not available.", e);
+			}
+		});
+	}
+
+	/**
+	 * @return A 128 bit Blowfish key derived from the secret.
+	 */
+	static byte[] keyOf(String secret) {
+		try {
+			MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+			byte[] digest = sha256.digest(("voteapp.codes:" + secret).getBytes(StandardCharsets.UTF_8));
+			return Arrays.copyOf(digest, KEY_BYTES);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available.", e);
+		}
+	}
+
+	public String nextCode() {
+		return encode(encrypt(nextValue()));
+	}
+
+	private long nextValue() {
+		while(true) {
+			Block current = block;
+			if(current != null) {
+				long value = current.next.getAndIncrement();
+				if(value < current.end) {
+					return value;
+				}
+			}
+			synchronized(this) {
+				if(block == current) {
+					block = new Block(blocks.getAsLong() << BLOCK_BITS, BLOCK_BITS);
+				}
+			}
+		}
+	}
+
+	private long encrypt(long value) {
+		try {
+			byte[] encrypted = ciphers.get().doFinal(ByteBuffer.allocate(Long.BYTES).putLong(value).array());
+			return ByteBuffer.wrap(encrypted).getLong();
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("Could not encrypt a code.", e);
+		}
+	}
+
+	//62^11 is larger than 2^64, every value fits in the fixed width.
+	private static String encode(long value) {
+		char[] code = new char[CODE_LENGTH];
+		for(int i = CODE_LENGTH - 1; i >= 0; i--) {
+			code[i] = CHARSET[(int) Long.remainderUnsigned(value, CHARSET.length)];
+			value = Long.divideUnsigned(value, CHARSET.length);
+		}
+		return new String(code);
+	}
+
+	private static final class Block {
+
+		final AtomicLong next;
+		final long end;
+
+		Block(long start, int bits) {
+			this.next = new AtomicLong(start);
+			this.end = start + (1L << bits);
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package models;
+
+import com.avaje.ebean.Ebean;
+import com.avaje.ebean.SqlRow;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class hands out the ids of one table from blocks reserved from its
+ * sequence, so that new rows know their id before they are inserted and
+ * inserts need no generated key. A block is fetched with a single query
+ * when the previous one runs out; ids of a block that is dropped on
+ * shutdown are never used, which only leaves gaps.
+ */
+final class IdAllocator {
+
+	private final String sequence;
+	private volatile int blockSize = 100;
+	private volatile Block block;
+
+	IdAllocator(String sequence) {
+		this.sequence = sequence;
+	}
+
+	void setBlockSize(int blockSize) {
+		this.blockSize = Math.max(1, blockSize);
+	}
+
+	long nextId() {
+		while(true) {
+			Block current = block;
+			if(current != null) {
+				int index = current.next.getAndIncrement();
+				if(index < current.ids.length) {
+					return current.ids[index];
+				}
+			}
+			synchronized(this) {
+				if(block == current) {
+					block = new Block(fetchIds(blockSize));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops the current block.
+	 *
+	 * @return The number of ids of the block that were not used.
+	 */
+	synchronized int release() {
+		Block current = block;
+		block = null;
+		return current == null ? 0 : Math.max(0, current.ids.length - current.next.get());
+	}
+
+	private long[] fetchIds(int count) {
+		List<SqlRow> rows = Ebean.createSqlQuery("select nextval('" + sequence + "') as id from generate_series(1, :count)")
+				.setParameter("count", count)
+				.findList();
+		long[] ids = new long[rows.size()];
+		for(int i = 0; i < ids.length; i++) {
+			ids[i] = rows.get(i).getLong("id");
+		}
+		return ids;
+	}
+
+	private static final class Block {
+
+		final long[] ids;
+		final AtomicInteger next = new AtomicInteger();
+
+		Block(long[] ids) {
+			this.ids = ids;
+		}
+	}
+}
@@ -5,13 +5,18 @@ import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Size;
 import com.avaje.ebean.*;
 import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 @Entity
 public class Option extends Model {
 
-    @Id @GeneratedValue @NotNull
+    //Assigned from blocks of the id sequence, see Utils.nextOptionId.
+    @Id @NotNull
     public Long id;
-    @Column(nullable = false)
+    @Column(nullable = false, unique = true)
     public String code;
     @Column @ManyToOne
     public Poll poll;
@@ -25,6 +30,7 @@ public class Option extends Model {
     public Instant timeCreated;
 
     public Option(String option) {
+        this.id = Utils.nextOptionId();
         this.code = Utils.generateUniqueOptionCode();
         this.option = option;
         this.votes = 0;
@@ -41,4 +47,35 @@ public class Option extends Model {
                 .eq("code", id)
                 .findUnique();
     }
-}
\ No newline at end of file
+
+    public static List<Option> findOptionsByPoll(Long pollId) {
+        return find
+                .select("id, code")
+                .where()
+                .eq("poll.id", pollId)
+                .findList();
+    }
+
+    public static List<Option> findOptionTalliesByPoll(Long pollId) {
+        return find
+                .select("id, code, option, votes")
+                .where()
+                .eq("poll.id", pollId)
+                .order().asc("id")
+                .findList();
+    }
+
+    /**
+     * @return The total votes of each of the polls, a change tells that
+     * votes were committed, also by other servers.
+     */
+    public static Map<Long, Long> sumVotesByPolls(Collection<Long> pollIds) {
+        Map<Long, Long> votes = new HashMap<>();
+        for(SqlRow row : Ebean.createSqlQuery("select poll_id, sum(votes) as votes from option where poll_id in (:ids) group by poll_id")
+                .setParameter("ids", pollIds)
+                .findList()) {
+            votes.put(row.getLong("poll_id"), row.getLong("votes"));
+        }
+        return votes;
+    }
+}
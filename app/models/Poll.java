@@ -4,6 +4,9 @@ import javax.persistence.*;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Size;
 import com.avaje.ebean.*;
+import com.avaje.ebean.Query;
+import com.fasterxml.jackson.databind.JsonNode;
+import play.libs.Json;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
@@ -11,9 +14,10 @@ import java.util.List;
 @Entity
 public class Poll extends Model {
 
-    @Id @GeneratedValue @NotNull
+    //Assigned from blocks of the id sequence, see Utils.nextPollId.
+    @Id @NotNull
     public Long id;
-    @Column(nullable = false)
+    @Column(nullable = false, unique = true)
     public String code;
     @Column(nullable = false)
     public String status;
@@ -40,6 +44,7 @@ public class Poll extends Model {
     public List<Participation> participations;
 
     public Poll(Voter creator, String visibility, String mode, String question, Instant expiration) {
+        this.id = Utils.nextPollId();
         this.code = Utils.generateUniquePollCode();
         this.status = "Active";
         this.creator = creator;
@@ -55,6 +60,13 @@ public class Poll extends Model {
 
     public static Finder<Long, Poll> find = new Finder<Long, Poll>(Poll.class);
 
+    //Options of all polls of a page are read with one secondary query, the
+    //batch is larger than the biggest page.
+    private static final FetchConfig OPTIONS_OF_PAGE = new FetchConfig().query(250);
+
+    //Polls the voter participates in, a semi-join on the participation primary key.
+    private static final String PARTICIPATED_BY = "id in (select pa.poll_id from participation pa where pa.voter_id = ?)";
+
     public static Poll findPollByCode(String id) {
         return find
                 .fetch("creator")
@@ -66,6 +78,7 @@ public class Poll extends Model {
     public static PagedList<Poll> findPublicPollsPagedList(int page, int size) {
         return find
                 .fetch("creator")
+                .fetch("options", OPTIONS_OF_PAGE)
                 .where()
                 .eq("visibility", "Public")
                 .order().desc("timeCreated")
@@ -73,11 +86,12 @@ public class Poll extends Model {
                 .findPagedList(page, size);
     }
 
-    public static PagedList<Poll> findPrivatePollsPagedList(int page, int size, List<Long> pollIds) {
+    public static PagedList<Poll> findPrivatePollsPagedList(int page, int size, Long voterId) {
         return find
                 .fetch("creator")
+                .fetch("options", OPTIONS_OF_PAGE)
                 .where()
-                .idIn(pollIds)
+                .raw(PARTICIPATED_BY, voterId)
                 .eq("visibility", "Private")
                 .order().desc("timeCreated")
                 .setMaxRows(size)
@@ -87,10 +101,49 @@ public class Poll extends Model {
     public static PagedList<Poll> findCreatedPollsPagedList(int page, int size, Long creatorId) {
         return find
                 .fetch("creator")
+                .fetch("options", OPTIONS_OF_PAGE)
                 .where()
                 .eq("creator.id", creatorId)
                 .order().desc("timeCreated")
                 .setMaxRows(size)
                 .findPagedList(page, size);
     }
-}
\ No newline at end of file
+
+    private static Query<Poll> feed() {
+        return find.fetch("creator").fetch("options", OPTIONS_OF_PAGE);
+    }
+
+    public static PollPage findPublicPollsPage(PollCursor cursor, int size) {
+        return PollPage.find(feed().where().eq("visibility", "Public"), cursor, size);
+    }
+
+    public static PollPage findPrivatePollsPage(PollCursor cursor, int size, Long voterId) {
+        return PollPage.find(feed().where().raw(PARTICIPATED_BY, voterId).eq("visibility", "Private"), cursor, size);
+    }
+
+    public static PollPage findCreatedPollsPage(PollCursor cursor, int size, Long creatorId) {
+        return PollPage.find(feed().where().eq("creator.id", creatorId), cursor, size);
+    }
+
+    public static int countPublicPolls() {
+        return find.where().eq("visibility", "Public").findRowCount();
+    }
+
+    public static int countPrivatePolls(Long voterId) {
+        return find.where().raw(PARTICIPATED_BY, voterId).eq("visibility", "Private").findRowCount();
+    }
+
+    public static int countCreatedPolls(Long creatorId) {
+        return find.where().eq("creator.id", creatorId).findRowCount();
+    }
+
+    /**
+     * @return The number of public polls the planner estimates from the
+     * table statistics, without counting them.
+     */
+    public static int estimatePublicPolls() {
+        SqlRow row = Ebean.createSqlQuery("explain (format json) select 1 from poll where visibility = 'Public'").findUnique();
+        JsonNode plan = Json.parse(String.valueOf(row.values().iterator().next()));
+        return plan.get(0).get("Plan").get("Plan Rows").asInt();
+    }
+}
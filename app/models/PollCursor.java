@@ -0,0 +1,67 @@
+package models;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+
+/**
+ * A position in a poll feed, which is ordered by <code>(timeCreated, id)</code>
+ * from the newest poll on. A cursor points right after or right before
+ * the poll it was taken from and is handed to clients as an opaque
+ * string.
+ */
+public final class PollCursor {
+
+    public final boolean after;
+    public final Instant timeCreated;
+    public final long id;
+
+    private PollCursor(boolean after, Instant timeCreated, long id) {
+        this.after = after;
+        this.timeCreated = timeCreated;
+        this.id = id;
+    }
+
+    /**
+     * @return The cursor of the polls that come after the given one.
+     */
+    public static PollCursor after(PollView poll) {
+        return new PollCursor(true, poll.timeCreated, poll.id);
+    }
+
+    /**
+     * @return The cursor of the polls that come before the given one.
+     */
+    public static PollCursor before(PollView poll) {
+        return new PollCursor(false, poll.timeCreated, poll.id);
+    }
+
+    /**
+     * @return True if the poll comes after this position in the feed.
+     */
+    public boolean precedes(PollView poll) {
+        int order = poll.timeCreated.compareTo(timeCreated);
+        return order < 0 || (order == 0 && poll.id < id);
+    }
+
+    public String encode() {
+        String position = (after ? "a" : "b") + ":" + timeCreated.getEpochSecond() + ":" + timeCreated.getNano() + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return The cursor of the string, or null if it is not a cursor.
+     */
+    public static PollCursor decode(String cursor) {
+        try {
+            String[] position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+            if(position.length != 4 || !(position[0].equals("a") || position[0].equals("b"))) {
+                return null;
+            }
+            Instant timeCreated = Instant.ofEpochSecond(Long.parseLong(position[1]), Long.parseLong(position[2]));
+            return new PollCursor(position[0].equals("a"), timeCreated, Long.parseLong(position[3]));
+        } catch (IllegalArgumentException | java.time.DateTimeException e) {
+            return null;
+        }
+    }
+}
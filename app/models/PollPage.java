@@ -0,0 +1,72 @@
+package models;
+
+import com.avaje.ebean.Expr;
+import com.avaje.ebean.ExpressionList;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A page of a poll feed read by keyset: the page starts at a
+ * {@link PollCursor} instead of skipping rows, so every page costs the
+ * same no matter how deep it is, and no rows are counted.
+ */
+public final class PollPage {
+
+    public final List<Poll> polls;
+    public final boolean hasNext;
+    public final boolean hasPrev;
+
+    private PollPage(List<Poll> polls, boolean hasNext, boolean hasPrev) {
+        this.polls = polls;
+        this.hasNext = hasNext;
+        this.hasPrev = hasPrev;
+    }
+
+    /**
+     * Reads the page of the feed that starts at the cursor.
+     *
+     * @param feed The polls of the feed, without order.
+     * @param cursor Where the page starts, null for the first page.
+     * @param size The number of polls of the page, at least one.
+     */
+    static PollPage find(ExpressionList<Poll> feed, PollCursor cursor, int size) {
+        if(size < 1) {
+            //No max rows would read the whole feed.
+            throw new IllegalArgumentException("The page size must be positive.");
+        }
+        if(cursor == null) {
+            List<Poll> polls = feed.orderBy("timeCreated desc, id desc").setMaxRows(size + 1).findList();
+            return page(polls, size, false);
+        }
+        if(cursor.after) {
+            //The redundant bound lets the index on time_created start at the cursor.
+            List<Poll> polls = feed
+                    .le("timeCreated", cursor.timeCreated)
+                    .or(Expr.lt("timeCreated", cursor.timeCreated),
+                        Expr.and(Expr.eq("timeCreated", cursor.timeCreated), Expr.lt("id", cursor.id)))
+                    .orderBy("timeCreated desc, id desc")
+                    .setMaxRows(size + 1)
+                    .findList();
+            return page(polls, size, true);
+        }
+        //Read backwards from the cursor and restore the feed order.
+        List<Poll> polls = feed
+                .ge("timeCreated", cursor.timeCreated)
+                .or(Expr.gt("timeCreated", cursor.timeCreated),
+                    Expr.and(Expr.eq("timeCreated", cursor.timeCreated), Expr.gt("id", cursor.id)))
+                .orderBy("timeCreated asc, id asc")
+                .setMaxRows(size + 1)
+                .findList();
+        boolean hasPrev = polls.size() > size;
+        List<Poll> page = new ArrayList<>(hasPrev ? polls.subList(0, size) : polls);
+        Collections.reverse(page);
+        return new PollPage(page, true, hasPrev);
+    }
+
+    private static PollPage page(List<Poll> polls, int size, boolean hasPrev) {
+        boolean hasNext = polls.size() > size;
+        return new PollPage(hasNext ? polls.subList(0, size) : polls, hasNext, hasPrev);
+    }
+}
@@ -0,0 +1,92 @@
+package models;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.ToLongFunction;
+
+/**
+ * An immutable copy of a poll with the tallies of its options, as the
+ * poll listings render it. Views are detached from the database, so they
+ * can be kept in memory and shared between requests. The creator is only
+ * read and must be loaded when the view is made.
+ */
+public final class PollView {
+
+    public final Long id;
+    public final String code;
+    public final String visibility;
+    public final String mode;
+    public final String question;
+    public final Instant expiration;
+    public final Instant timeUpdated;
+    public final Instant timeCreated;
+    public final Voter creator;
+    public final List<OptionView> options;
+
+    private PollView(Poll poll, List<OptionView> options) {
+        this.id = poll.id;
+        this.code = poll.code;
+        this.visibility = poll.visibility;
+        this.mode = poll.mode;
+        this.question = poll.question;
+        this.expiration = poll.expiration;
+        this.timeUpdated = poll.timeUpdated;
+        this.timeCreated = poll.timeCreated;
+        this.creator = poll.creator;
+        this.options = Collections.unmodifiableList(options);
+    }
+
+    private PollView(PollView view, List<OptionView> options) {
+        this.id = view.id;
+        this.code = view.code;
+        this.visibility = view.visibility;
+        this.mode = view.mode;
+        this.question = view.question;
+        this.expiration = view.expiration;
+        this.timeUpdated = view.timeUpdated;
+        this.timeCreated = view.timeCreated;
+        this.creator = view.creator;
+        this.options = Collections.unmodifiableList(options);
+    }
+
+    /**
+     * @param votes The tally of an option.
+     */
+    public static PollView of(Poll poll, ToLongFunction<Option> votes) {
+        List<OptionView> options = new ArrayList<>(poll.options.size());
+        for(Option option : poll.options) {
+            options.add(new OptionView(option.id, option.code, option.option, votes.applyAsLong(option)));
+        }
+        return new PollView(poll, options);
+    }
+
+    /**
+     * @return A copy of the view with one more vote on each of the options.
+     */
+    public PollView withVotes(Set<Long> optionIds) {
+        List<OptionView> options = new ArrayList<>(this.options.size());
+        for(OptionView option : this.options) {
+            options.add(optionIds.contains(option.id)
+                    ? new OptionView(option.id, option.code, option.option, option.votes + 1) : option);
+        }
+        return new PollView(this, options);
+    }
+
+    public static final class OptionView {
+
+        public final Long id;
+        public final String code;
+        public final String option;
+        public final long votes;
+
+        OptionView(Long id, String code, String option, long votes) {
+            this.id = id;
+            this.code = code;
+            this.option = option;
+            this.votes = votes;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package models;
+
+import com.avaje.ebean.Ebean;
+import com.avaje.ebean.SqlRow;
+
+import java.time.Instant;
+
+/**
+ * The part of a poll that is needed to accept a ballot, along with the
+ * voter's participation and vote flags. It is read with one query instead
+ * of loading the poll, the participation and the vote separately.
+ */
+public class PollVoteStatus {
+
+    private static final String SQL =
+            "select p.id, p.code, p.visibility, p.mode, p.expiration,"
+            + " exists (select 1 from participation pa where pa.poll_id = p.id and pa.voter_id = :voterId) as participated,"
+            + " exists (select 1 from vote v where v.poll_id = p.id and v.voter_id = :voterId) as voted"
+            + " from poll p where p.code = :code";
+
+    public final Long pollId;
+    public final String pollCode;
+    public final String visibility;
+    public final String mode;
+    public final Instant expiration;
+    public final boolean participated;
+    public final boolean voted;
+
+    private PollVoteStatus(SqlRow row) {
+        this.pollId = row.getLong("id");
+        this.pollCode = row.getString("code");
+        this.visibility = row.getString("visibility");
+        this.mode = row.getString("mode");
+        this.expiration = row.getTimestamp("expiration").toInstant();
+        this.participated = row.getBoolean("participated");
+        this.voted = row.getBoolean("voted");
+    }
+
+    /**
+     * @return A reference to the poll that does not hit the database unless
+     * properties other than the id are read.
+     */
+    public Poll pollReference() {
+        return Poll.find.ref(pollId);
+    }
+
+    public static PollVoteStatus findPollVoteStatus(String pollCode, Long voterId) {
+        SqlRow row = Ebean.createSqlQuery(SQL)
+                .setParameter("code", pollCode)
+                .setParameter("voterId", voterId)
+                .findUnique();
+        return row == null ? null : new PollVoteStatus(row);
+    }
+}
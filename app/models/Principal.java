@@ -0,0 +1,72 @@
+package models;
+
+import io.jsonwebtoken.Claims;
+
+import java.time.Instant;
+
+/**
+ * The authenticated voter of a request, built from the claims of its
+ * verified access token alone. {@link SecuredAction} puts it in the
+ * context args as <code>principal</code>.
+ */
+public final class Principal {
+
+	public final Long id;
+	public final String code;
+	public final String role;
+	public final long tokenVersion;
+	//The id (jti) and expiration of the token, used to revoke it.
+	public final String tokenId;
+	public final Instant expiration;
+
+	public Principal(Long id, String code, String role, long tokenVersion, String tokenId, Instant expiration) {
+		this.id = id;
+		this.code = code;
+		this.role = role;
+		this.tokenVersion = tokenVersion;
+		this.tokenId = tokenId;
+		this.expiration = expiration;
+	}
+
+	/**
+	 * @return A reference to the voter that is only loaded from the
+	 * database when properties other than the id are read.
+	 */
+	public Voter voter() {
+		return Voter.find.ref(id);
+	}
+
+	/**
+	 * @return The principal of the claims, or null if tokens issued before
+	 * the claims were added are given, see {@link #isLegacy(Claims)}.
+	 */
+	public static Principal fromClaims(Claims claims) {
+		Object id = claims.get("uid");
+		Object tokenVersion = claims.get("ver");
+		if(!(id instanceof Number) || !(tokenVersion instanceof Number) || claims.getSubject() == null
+				|| claims.getId() == null || claims.getExpiration() == null) {
+			return null;
+		}
+		return new Principal(((Number) id).longValue(), claims.getSubject(), claims.get("role", String.class),
+				((Number) tokenVersion).longValue(), claims.getId(), claims.getExpiration().toInstant());
+	}
+
+	/**
+	 * @return True for tokens issued before the uid and ver claims were
+	 * added. Their voter is looked up once by code and they carry version 0,
+	 * the version every voter started with. Remove this once they expired,
+	 * 30 days after the deploy that added the claims.
+	 */
+	public static boolean isLegacy(Claims claims) {
+		return claims.get("uid") == null && claims.get("ver") == null && claims.getSubject() != null
+				&& claims.getId() != null && claims.getExpiration() != null;
+	}
+
+	/**
+	 * @return The principal of a legacy token of the given voter.
+	 */
+	public static Principal fromLegacyClaims(Claims claims, Long id) {
+		return new Principal(id, claims.getSubject(), claims.get("role", String.class), 0L, claims.getId(),
+				claims.getExpiration().toInstant());
+	}
+}
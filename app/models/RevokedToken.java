@@ -0,0 +1,51 @@
+package models;
+
+import com.avaje.ebean.Ebean;
+import com.avaje.ebean.Model;
+import javax.persistence.*;
+import javax.validation.constraints.NotNull;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+
+@Entity
+public class RevokedToken extends Model {
+
+    @Id @GeneratedValue @NotNull
+    public Long id;
+    @Column(nullable = false, unique = true, length = 64)
+    public String tokenId;
+    @Column(nullable = false)
+    public Long voterId;
+    @Column(nullable = false)
+    public Instant expiration;
+    @Column(nullable = false)
+    public Instant timeCreated;
+
+    public RevokedToken(String tokenId, Long voterId, Instant expiration) {
+        this.tokenId = tokenId;
+        this.voterId = voterId;
+        this.expiration = expiration;
+        this.timeCreated = Instant.now();
+    }
+
+    public static Finder<Long, RevokedToken> find = new Finder<Long, RevokedToken>(RevokedToken.class);
+
+    /**
+     * @return The unexpired tokens revoked since the given instant.
+     */
+    public static List<RevokedToken> findRevokedTokensSince(Instant since) {
+        return find
+                .select("tokenId, expiration")
+                .where()
+                .ge("timeCreated", since)
+                .gt("expiration", Instant.now())
+                .findList();
+    }
+
+    public static int deleteExpiredRevokedTokens() {
+        return Ebean.createSqlUpdate("delete from revoked_token where expiration <= :now")
+                .setParameter("now", Timestamp.from(Instant.now()))
+                .execute();
+    }
+}
@@ -2,14 +2,44 @@ package models;
 
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.jsonwebtoken.Claims;
+import play.libs.concurrent.HttpExecutionContext;
 import play.mvc.*;
+import services.DatabaseExecutionContext;
+import services.Metrics;
+import services.TokenCache;
+import services.TokenDenyList;
+import services.TokenVersions;
+
+import javax.inject.Inject;
 import java.util.concurrent.*;
+import java.util.function.Supplier;
 
 public class SecuredAction extends Action.Simple { 
+
+	private final DatabaseExecutionContext databaseExecutionContext;
+	private final HttpExecutionContext httpExecutionContext;
+	private final TokenCache tokenCache;
+	private final TokenVersions tokenVersions;
+	private final TokenDenyList tokenDenyList;
+	private final Metrics metrics;
+
+	@Inject
+	public SecuredAction(DatabaseExecutionContext databaseExecutionContext, HttpExecutionContext httpExecutionContext,
+						 TokenCache tokenCache, TokenVersions tokenVersions, TokenDenyList tokenDenyList,
+						 Metrics metrics) {
+		this.databaseExecutionContext = databaseExecutionContext;
+		this.httpExecutionContext = httpExecutionContext;
+		this.tokenCache = tokenCache;
+		this.tokenVersions = tokenVersions;
+		this.tokenDenyList = tokenDenyList;
+		this.metrics = metrics;
+	}
+
 	public CompletionStage<Result> call(Http.Context ctx) {
 		ObjectNode jsonResponseBody = play.libs.Json.newObject();
 		ArrayNode errors = play.libs.Json.newArray();
-		final String userCode;
+		final long authStart = System.nanoTime();
 		final String accessToken = extractToken(ctx);
 
 		if(accessToken == null) {
@@ -17,26 +47,91 @@ public class SecuredAction extends Action.Simple {
 			jsonResponseBody.set("errors", errors);
 			return CompletableFuture.completedFuture(unauthorized(jsonResponseBody));
 		}
-		userCode = Token.confirmAccessToken(accessToken);
-		if(userCode == null) {
-			requestInvalidToken(errors);
-			jsonResponseBody.set("errors", errors);
-			return CompletableFuture.completedFuture(unauthorized(jsonResponseBody));
+		//A token verified before needs no signature check.
+		final Principal cachedPrincipal = tokenCache.get(accessToken);
+		if(cachedPrincipal != null && isCurrent(cachedPrincipal, tokenVersions.known(cachedPrincipal.id))
+				&& !tokenDenyList.isRevoked(cachedPrincipal.tokenId)) {
+			metrics.recordNanosAsMicros("auth.cachedMicros", authStart);
+			return authorized(ctx, cachedPrincipal);
 		}
-
-		final Voter loggedInUser = Voter.findVoterByCode(userCode);
-		//Token is valid but user does not exist in database(hard delete).
-		if(loggedInUser == null) {
+		final Claims claims = Token.verifyAccessToken(accessToken);
+		if(claims != null && Principal.isLegacy(claims) && !tokenDenyList.isRevoked(claims.getId())) {
+			//Issued before the uid and ver claims, look the voter up by code once, then the token is cached.
+			return verified(ctx, accessToken, claims, () -> loadLegacyPrincipal(claims), authStart);
+		}
+		final Principal principal = claims == null ? null : Principal.fromClaims(claims);
+		if(principal == null || tokenDenyList.isRevoked(principal.tokenId)) {
 			requestInvalidToken(errors);
 			jsonResponseBody.set("errors", errors);
 			return CompletableFuture.completedFuture(unauthorized(jsonResponseBody));
 		}
-		//Save user within context args for easier access.
-		ctx.args.put("user", loggedInUser);
-		return delegate.call(ctx);
+		final Long knownVersion = tokenVersions.known(principal.id);
+		if(knownVersion != null) {
+			if(!isCurrent(principal, knownVersion)) {
+				requestInvalidToken(errors);
+				jsonResponseBody.set("errors", errors);
+				return CompletableFuture.completedFuture(unauthorized(jsonResponseBody));
+			}
+			tokenCache.put(accessToken, principal, claims.getExpiration());
+			metrics.recordNanosAsMicros("auth.verifiedMicros", authStart);
+			return authorized(ctx, principal);
+		}
+
+		//First token of the voter, read its version on the database executor.
+		return verified(ctx, accessToken, claims,
+				() -> isCurrent(principal, tokenVersions.load(principal.id)) ? principal : null, authStart);
+	}
+
+	/**
+	 * Loads the principal on the database executor and continues on a
+	 * request thread. The loader answers null for revoked tokens.
+	 */
+	private CompletionStage<Result> verified(Http.Context ctx, String accessToken, Claims claims,
+											 Supplier<Principal> loader, long authStart) {
+		ObjectNode jsonResponseBody = play.libs.Json.newObject();
+		ArrayNode errors = play.libs.Json.newArray();
+		return databaseExecutionContext.supplyAsync(loader).<CompletionStage<Result>>handleAsync((principal, failure) -> {
+			if(failure != null) {
+				Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+				if(cause instanceof RejectedExecutionException) {
+					requestServiceUnavailable(errors);
+					jsonResponseBody.set("errors", errors);
+					return CompletableFuture.completedFuture(status(503, jsonResponseBody));
+				}
+				throw new CompletionException(cause);
+			}
+			//Token is valid but it was revoked or the user does not exist in database(hard delete).
+			if(principal == null) {
+				requestInvalidToken(errors);
+				jsonResponseBody.set("errors", errors);
+				return CompletableFuture.completedFuture(unauthorized(jsonResponseBody));
+			}
+			tokenCache.put(accessToken, principal, claims.getExpiration());
+			metrics.recordNanosAsMicros("auth.verifiedMicros", authStart);
+			return authorized(ctx, principal);
+		}, httpExecutionContext.current()).thenCompose(result -> result);
     }
+
+	private CompletionStage<Result> authorized(Http.Context ctx, Principal principal) {
+		//Save the principal within context args for easier access. The user is
+		//a reference that is only loaded by actions that read more than its id.
+		ctx.args.put("principal", principal);
+		ctx.args.put("user", principal.voter());
+		return delegate.call(ctx);
+	}
+
+	private Principal loadLegacyPrincipal(Claims claims) {
+		Voter voter = Voter.find.select("id, tokenVersion").where().eq("code", claims.getSubject()).findUnique();
+		if(voter == null) return null;
+		Principal principal = Principal.fromLegacyClaims(claims, voter.id);
+		return isCurrent(principal, tokenVersions.loaded(voter.id, voter.tokenVersion)) ? principal : null;
+	}
+
+	private static boolean isCurrent(Principal principal, Long currentVersion) {
+		return currentVersion != null && currentVersion == principal.tokenVersion;
+	}
 	
-	private String extractToken(Http.Context ctx) {
+	static String extractToken(Http.Context ctx) {
 		//Example header Authorization: "bearer <token>".
 		String[] authorizationHeader = ctx.request().getHeader("Authorization").split("\\s+");
 		if(authorizationHeader[0] == null || !authorizationHeader[0].equals("bearer") || authorizationHeader[1] == null) {
@@ -63,4 +158,13 @@ public class SecuredAction extends Action.Simple {
 		error.put("moreInfo", "https://localhost:9000/blablabla");
 		errorsArray.add(error);
 	}
+	private void requestServiceUnavailable(ArrayNode errorsArray) {
+		ObjectNode error = play.libs.Json.newObject();
+		error.put("status", "503");
+		error.put("code", "13");
+		error.put("message", "Service unavailable.");
+		error.put("detail", "The server is overloaded. Please retry later.");
+		error.put("moreInfo", "https://localhost:9000/blablabla");
+		errorsArray.add(error);
+	}
 }
\ No newline at end of file
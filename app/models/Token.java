@@ -5,6 +5,7 @@ import play.Logger;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.Date;
+import java.util.UUID;
 import io.jsonwebtoken.*;
 
 public class Token {
@@ -12,28 +13,48 @@ public class Token {
 	private static final String SECRET_KEY_BASE64_ENCODED = "c2VjcmV0a2V5Y2hhbmdlbWVwbGVhc2U=";
 	
 	public static String createAccessToken(Voter user) {
+		String jwtStr = signAccessToken(user);
+		//Save access token.
+		user.accessToken = jwtStr;
+		user.update();
+		return jwtStr;
+	}
+
+	static String signAccessToken(Voter user) {
 		//Generate monthly token.
-		String jwtStr = Jwts.builder()
+		return Jwts.builder()
 			.setIssuer("VoteApp")
+			.setId(UUID.randomUUID().toString())
 			.setSubject(user.code)
 			.setIssuedAt(Date.from(Instant.now()))
 			.setExpiration(Date.from(Instant.now().plus(30, ChronoUnit.DAYS)))
 			.claim("role", user.role)
+			.claim("uid", user.id)
+			.claim("ver", user.tokenVersion)
 			.signWith(SignatureAlgorithm.HS256, SECRET_KEY_BASE64_ENCODED).compact();
-		//Save access token.
-		user.accessToken = jwtStr;
-		user.update();
-		return jwtStr;
 	}
 
 	public static String confirmAccessToken(String accessToken) {
+		Claims claims = verifyAccessToken(accessToken);
+		return claims == null ? null : claims.getSubject();
+	}
+
+	/**
+	 * @return The claims of a valid token, otherwise null.
+	 */
+	public static Claims verifyAccessToken(String accessToken) {
 		try {
 			Jws<Claims> claims = Jwts.parser()
 				.requireIssuer("VoteApp")
-				.require("role", "User")
 				.setSigningKey(SECRET_KEY_BASE64_ENCODED)
 				.parseClaimsJws(accessToken);
-			return claims.getBody().getSubject();
+			//Users and admins sign in alike, admins may also read the metrics.
+			String role = claims.getBody().get("role", String.class);
+			if(!"User".equals(role) && !"Admin".equals(role)) {
+				Logger.debug("Required claim is wrong: role");
+				return null;
+			}
+			return claims.getBody();
 		} catch (MissingClaimException e) {
 			Logger.debug("Required claim not present: " + e.getClaimName());
 			return null;
@@ -1,82 +1,90 @@
 package models;
 
-import play.Logger;
+import com.avaje.ebean.Ebean;
+import javax.persistence.PersistenceException;
 import java.security.SecureRandom;
+import java.sql.SQLException;
 import java.util.*;
 
 public final class Utils {
 
 	private static Random random = new SecureRandom();
+	//Codes of all resources come from one generator, they are unique across resources.
+	private static volatile CodeGenerator codeGenerator;
+	private static final IdAllocator pollIds = new IdAllocator("poll_id_seq");
+	private static final IdAllocator optionIds = new IdAllocator("option_id_seq");
+	//SQL state of unique_violation.
+	private static final String UNIQUE_VIOLATION = "23505";
 	private static final char[] CHARSET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
 
 	private Utils() {}
 
-	public static String generateUniqueVoterCode() {
-		//Warning: this code might iterate more than once and
-		//be the reason for bottleneck during poll creation
-		String code = generateRandomString(5);
-		Voter voter = Voter.find.where().eq("code", code).findUnique();
-		while(voter != null) {
-			Logger.debug("Code generation collision!");
-			code = generateRandomString(5);
-			voter = Voter.find.where().eq("code", code).findUnique();
+	private static long nextCodeBlock() {
+		return Ebean.createSqlQuery("select nextval('public_code_block_seq') as block").findUnique().getLong("block");
+	}
+
+	/**
+	 * Sets the secret that codes are encrypted with, before the first code
+	 * is generated.
+	 */
+	public static void configureCodes(String secret) {
+		codeGenerator = new CodeGenerator(CodeGenerator.keyOf(secret), Utils::nextCodeBlock);
+	}
+
+	private static String nextCode() {
+		CodeGenerator generator = codeGenerator;
+		if(generator == null) {
+			throw new IllegalStateException("The code secret is not configured.");
 		}
-		return code;
+		return generator.nextCode();
+	}
+
+	/**
+	 * Sets how many ids are reserved with one query.
+	 */
+	public static void configureIdBlocks(int blockSize) {
+		pollIds.setBlockSize(blockSize);
+		optionIds.setBlockSize(blockSize);
+	}
+
+	/**
+	 * Drops the reserved ids, call it on shutdown.
+	 *
+	 * @return The number of reserved ids that were not used.
+	 */
+	public static int releaseIdBlocks() {
+		return pollIds.release() + optionIds.release();
+	}
+
+	public static long nextPollId() {
+		return pollIds.nextId();
+	}
+
+	public static long nextOptionId() {
+		return optionIds.nextId();
+	}
+
+	public static String generateUniqueVoterCode() {
+		return nextCode();
 	}
 
 	public static String generateUniquePollCode() {
-		//Warning: this code might iterate more than once and
-		//be the reason for bottleneck during poll creation
-		String code = generateRandomString(5);
-		Poll poll = Poll.find.where().eq("code", code).findUnique();
-		while(poll != null) {
-			Logger.debug("Code generation collision!");
-			code = generateRandomString(5);
-			poll = Poll.find.where().eq("code", code).findUnique();
-		}
-		return code;
+		return nextCode();
 	}
 
 	public static String generateUniqueOptionCode() {
-		//Warning: this code might iterate more than once and
-		//be the reason for bottleneck during option creation
-		String code = generateRandomString(5);
-		Option option = Option.find.where().eq("code", code).findUnique();
-		while(option != null) {
-			Logger.debug("Code generation collision!");
-			code = generateRandomString(5);
-			option = Option.find.where().eq("code", code).findUnique();
-		}
-		return code;
+		return nextCode();
 	}
 
 	public static String generateUniqueParticipationCode() {
-		//Warning: this code might iterate more than once and
-		//be the reason for bottleneck during option creation
-		String code = generateRandomString(5);
-		Participation participation = Participation.find.where().eq("code", code).findUnique();
-		while(participation != null) {
-			Logger.debug("Code generation collision!");
-			code = generateRandomString(5);
-			participation = Participation.find.where().eq("code", code).findUnique();
-		}
-		return code;
+		return nextCode();
 	}
 
 	public static String generateUniqueVoteCode() {
-		//Warning: this code might iterate more than once and
-		//be the reason for bottleneck during option creation
-		String code = generateRandomString(5);
-		Vote vote = Vote.find.where().eq("code", code).findUnique();
-		while(vote != null) {
-			Logger.debug("Code generation collision!");
-			code = generateRandomString(5);
-			vote = Vote.find.where().eq("code", code).findUnique();
-		}
-		return code;
+		return nextCode();
 	}
 
-	private static String generateRandomString(int stringLength) {
+	static String generateRandomString(int stringLength) {
 		char[] result = new char[stringLength];
 		for(int i = 0; i < result.length; i++) {
 			int randomCharIndex = random.nextInt(CHARSET.length);
@@ -84,4 +92,20 @@ public final class Utils {
 		}
 		return new String(result);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @return Whether the exception was caused by a violated unique index,
+	 * as Postgres reports it.
+	 */
+	public static boolean isUniqueViolation(PersistenceException e) {
+		for(Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+			for(SQLException sqlException = cause instanceof SQLException ? (SQLException) cause : null;
+				sqlException != null; sqlException = sqlException.getNextException()) {
+				if(UNIQUE_VIOLATION.equals(sqlException.getSQLState())) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
@@ -14,18 +14,21 @@ public class Voter extends Model {
 	public Long id;
 	@Column(nullable = false)
 	public String status;
-	@Column(nullable = false)
+	@Column(nullable = false, unique = true)
 	public String code;
 	@Column(nullable = false)
 	public String role;
-	@Column(nullable = false)
+	@Column(nullable = false, unique = true)
 	public String email;
-	@Column(nullable = false) @Size(min = 5, max = 20)
+	@Column(nullable = false, unique = true) @Size(min = 5, max = 20)
 	public String username;
 	@Column
 	public String passwordHash;
-	@Column
+	@Column(length = 1024)
 	public String accessToken;
+	//Tokens that carry an older version are no longer accepted.
+	@Column(nullable = false)
+	public long tokenVersion;
 	@Column(nullable = false)
 	public Instant timeUpdated;
 	@Column(nullable = false)
@@ -46,6 +49,7 @@ public class Voter extends Model {
 		this.username = username;
 		this.passwordHash = passwordHash;
 		this.accessToken = accessToken;
+		this.tokenVersion = 0;
 		Instant currentInstant = Instant.now();
 		this.timeUpdated = currentInstant;
 		this.timeCreated = currentInstant;
@@ -73,4 +77,21 @@ public class Voter extends Model {
 				.eq("email", email)
 				.findUnique();
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Increments the voter's token version in the database, so that
+	 * concurrent revocations each count. Run it inside the transaction of
+	 * the change that revokes the tokens.
+	 *
+	 * @return The new version.
+	 */
+	public static long incrementTokenVersion(Long id) {
+		Ebean.createSqlUpdate("update voter set token_version = token_version + 1 where id = :id")
+				.setParameter("id", id)
+				.execute();
+		return Ebean.createSqlQuery("select token_version from voter where id = :id")
+				.setParameter("id", id)
+				.findUnique()
+				.getLong("token_version");
+	}
+}
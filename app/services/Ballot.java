@@ -0,0 +1,30 @@
+package services;
+
+import models.Poll;
+import models.Voter;
+
+import java.util.List;
+
+/**
+ * A validated ballot that is ready to be committed by the
+ * {@link VoteService}.
+ */
+public final class Ballot {
+
+    public final Voter voter;
+    public final Poll poll;
+    public final List<Long> optionIds;
+    //Whether the voter joins the (public) poll with this ballot.
+    public final boolean joinPoll;
+
+    public Ballot(Voter voter, Poll poll, List<Long> optionIds) {
+        this(voter, poll, optionIds, false);
+    }
+
+    public Ballot(Voter voter, Poll poll, List<Long> optionIds, boolean joinPoll) {
+        this.voter = voter;
+        this.poll = poll;
+        this.optionIds = optionIds;
+        this.joinPoll = joinPoll;
+    }
+}
@@ -0,0 +1,78 @@
+package services;
+
+import play.libs.concurrent.HttpExecution;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * An {@link Executor} with a fixed number of threads and a bounded queue.
+ * Tasks submitted while the queue is full are rejected right away instead
+ * of waiting without limit, so callers can shed load (e.g. answer 503).
+ *
+ * The queue depth, the time tasks wait in the queue and the number of
+ * rejected tasks are recorded in {@link Metrics} under the executor name.
+ */
+public class BoundedExecutor implements Executor {
+
+    private final String name;
+    private final Metrics metrics;
+    private final ThreadPoolExecutor pool;
+
+    public BoundedExecutor(String name, int threads, int queueSize, Metrics metrics) {
+        this.name = name;
+        this.metrics = metrics;
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                runnable -> {
+                    Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        metrics.gauge(name + ".queue.depth", () -> pool.getQueue().size());
+        metrics.gauge(name + ".active", pool::getActiveCount);
+    }
+
+    /**
+     * @throws RejectedExecutionException If the queue is full.
+     */
+    @Override
+    public void execute(Runnable command) {
+        final long enqueuedNanos = System.nanoTime();
+        try {
+            pool.execute(() -> {
+                metrics.recordNanosAsMicros(name + ".queue.waitMicros", enqueuedNanos);
+                command.run();
+            });
+        } catch (RejectedExecutionException e) {
+            metrics.increment(name + ".rejected");
+            throw e;
+        }
+    }
+
+    /**
+     * Runs the supplier on this executor with the current
+     * {@link play.mvc.Http.Context} available.
+     *
+     * @return A stage that completes with the supplier's value, or
+     * exceptionally with a {@link RejectedExecutionException} if the queue
+     * is full.
+     */
+    public <T> CompletionStage<T> supplyAsync(Supplier<T> supplier) {
+        try {
+            return CompletableFuture.supplyAsync(supplier, HttpExecution.fromThread((Executor) this));
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<T> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+    }
+
+    public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        pool.shutdown();
+        pool.awaitTermination(timeout, unit);
+    }
+}
@@ -0,0 +1,34 @@
+package services;
+
+import play.Configuration;
+import play.inject.ApplicationLifecycle;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is the executor for blocking database work (Ebean queries)
+ * of the controllers. It is sized separately from Play's default
+ * dispatcher so that slow queries can only exhaust this pool, and its
+ * bounded queue makes an overloaded database show up as fast 503s.
+ *
+ * Its size should match the JDBC connection pool, more threads would only
+ * wait for connections.
+ */
+@Singleton
+public class DatabaseExecutionContext extends BoundedExecutor {
+
+    @Inject
+    public DatabaseExecutionContext(Configuration configuration, Metrics metrics, ApplicationLifecycle appLifecycle) {
+        super("database",
+                configuration.getInt("voteapp.database.executor.threads", 10),
+                configuration.getInt("voteapp.database.executor.queue-size", 256),
+                metrics);
+        appLifecycle.addStopHook(() -> {
+            shutdown(10, TimeUnit.SECONDS);
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+}
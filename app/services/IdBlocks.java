@@ -0,0 +1,33 @@
+package services;
+
+import models.Utils;
+import play.Configuration;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * This class configures how many poll and option ids a server reserves
+ * from the database at once, see {@link Utils#nextPollId()}. It is bound
+ * as an eager singleton in {@link Module} so the block size is set before
+ * the first poll is created.
+ *
+ * Ids are private, only codes are public, so the ids a server reserved
+ * but did not use are dropped on shutdown and only leave gaps.
+ */
+@Singleton
+public class IdBlocks {
+
+    @Inject
+    public IdBlocks(Configuration configuration, ApplicationLifecycle appLifecycle) {
+        Utils.configureIdBlocks(configuration.getInt("voteapp.ids.block-size", 100));
+        appLifecycle.addStopHook(() -> {
+            int unused = Utils.releaseIdBlocks();
+            Logger.info("Dropped " + unused + " reserved ids on shutdown.");
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+}
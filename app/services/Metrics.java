@@ -0,0 +1,85 @@
+package services;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import play.libs.Json;
+
+import javax.inject.Singleton;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * This class is a small in-process metrics registry. Components record
+ * counters, value distributions (count, sum, max) and gauges by name and
+ * the {@link controllers.MetricsController} renders a snapshot of them.
+ *
+ * Recording is lock-free so it can be used on request threads.
+ */
+@Singleton
+public class Metrics {
+
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Distribution> distributions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    public void increment(String name) {
+        counters.computeIfAbsent(name, key -> new LongAdder()).increment();
+    }
+
+    public void record(String name, long value) {
+        distributions.computeIfAbsent(name, key -> new Distribution()).record(value);
+    }
+
+    public void recordNanosAsMicros(String name, long startNanos) {
+        record(name, (System.nanoTime() - startNanos) / 1000);
+    }
+
+    public void gauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    public ObjectNode snapshot() {
+        ObjectNode snapshot = Json.newObject();
+        ObjectNode countersNode = Json.newObject();
+        for(Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            countersNode.put(counter.getKey(), counter.getValue().sum());
+        }
+        snapshot.set("counters", countersNode);
+        ObjectNode distributionsNode = Json.newObject();
+        for(Map.Entry<String, Distribution> distribution : distributions.entrySet()) {
+            distributionsNode.set(distribution.getKey(), distribution.getValue().toJson());
+        }
+        snapshot.set("distributions", distributionsNode);
+        ObjectNode gaugesNode = Json.newObject();
+        for(Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+            gaugesNode.put(gauge.getKey(), gauge.getValue().getAsLong());
+        }
+        snapshot.set("gauges", gaugesNode);
+        return snapshot;
+    }
+
+    private static final class Distribution {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long value) {
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        ObjectNode toJson() {
+            long count = this.count.sum();
+            ObjectNode node = Json.newObject();
+            node.put("count", count);
+            node.put("mean", count == 0 ? 0 : (double) sum.sum() / count);
+            node.put("max", max.get());
+            return node;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package services;
+
+import models.Option;
+import play.Configuration;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.*;
+
+/**
+ * This class resolves the public option codes of a ballot to option ids.
+ * All options of a poll are fetched with one query and kept in a bounded
+ * LRU map, so a ballot costs at most one query no matter how many options
+ * it has. Options never change after a poll is created, so the cached
+ * maps never go stale.
+ */
+@Singleton
+public class OptionResolver {
+
+    private final Map<Long, Map<String, Long>> optionsByPoll;
+
+    @Inject
+    public OptionResolver(Configuration configuration) {
+        final int maxPolls = configuration.getInt("voteapp.votes.option-cache-size", 10000);
+        this.optionsByPoll = Collections.synchronizedMap(new LinkedHashMap<Long, Map<String, Long>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Map<String, Long>> eldest) {
+                return size() > maxPolls;
+            }
+        });
+    }
+
+    /**
+     * @return An unmodifiable map from option code to option id holding
+     * every option of the poll.
+     */
+    public Map<String, Long> optionIdsByCode(Long pollId) {
+        Map<String, Long> options = optionsByPoll.get(pollId);
+        if(options == null) {
+            //Concurrent misses may both load the poll, the result is the same.
+            Map<String, Long> loaded = new HashMap<>();
+            for(Option option : Option.findOptionsByPoll(pollId)) {
+                loaded.put(option.code, option.id);
+            }
+            options = Collections.unmodifiableMap(loaded);
+            optionsByPoll.put(pollId, options);
+        }
+        return options;
+    }
+}
@@ -0,0 +1,70 @@
+package services;
+
+import org.mindrot.jbcrypt.BCrypt;
+import play.Configuration;
+import play.inject.ApplicationLifecycle;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class hashes and verifies passwords with BCrypt on its own bounded
+ * executor. BCrypt is slow by design, so a burst of logins or
+ * registrations can only occupy this pool and its queue, while requests
+ * that do not touch passwords keep their threads. When the queue is full
+ * the returned stage fails with a
+ * {@link java.util.concurrent.RejectedExecutionException}.
+ *
+ * The work factor only applies to new hashes, existing hashes are
+ * verified with the factor they were created with.
+ */
+@Singleton
+public class PasswordHasher {
+
+    private final BoundedExecutor executor;
+    private final Metrics metrics;
+    private final int workFactor;
+
+    @Inject
+    public PasswordHasher(Configuration configuration, Metrics metrics, ApplicationLifecycle appLifecycle) {
+        this.metrics = metrics;
+        this.workFactor = configuration.getInt("voteapp.passwords.work-factor", 10);
+        this.executor = new BoundedExecutor("passwords",
+                configuration.getInt("voteapp.passwords.executor.threads",
+                        Math.max(1, Runtime.getRuntime().availableProcessors() / 2)),
+                configuration.getInt("voteapp.passwords.executor.queue-size", 64),
+                metrics);
+        appLifecycle.addStopHook(() -> {
+            executor.shutdown(10, TimeUnit.SECONDS);
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    public CompletionStage<String> hash(String password) {
+        return executor.supplyAsync(() -> {
+            long start = System.nanoTime();
+            String passwordHash = BCrypt.hashpw(password, BCrypt.gensalt(workFactor));
+            metrics.recordNanosAsMicros("passwords.hashMicros", start);
+            return passwordHash;
+        });
+    }
+
+    /**
+     * @return A stage that completes with true if the password matches the
+     * hash. A missing hash matches no password.
+     */
+    public CompletionStage<Boolean> verify(String password, String passwordHash) {
+        if(passwordHash == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return executor.supplyAsync(() -> {
+            long start = System.nanoTime();
+            boolean matches = BCrypt.checkpw(password, passwordHash);
+            metrics.recordNanosAsMicros("passwords.verifyMicros", start);
+            return matches;
+        });
+    }
+}
@@ -0,0 +1,179 @@
+package services;
+
+import models.Poll;
+import play.Configuration;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.PersistenceException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+
+/**
+ * This class provides the total counts of the offset paged poll feeds.
+ * Counts that have to be read from the database are started before the
+ * page query and run alongside it on the {@link DatabaseExecutionContext};
+ * the returned {@link Total} waits for them, or counts on its own thread
+ * when the count was rejected by a full queue.
+ *
+ * The counts of the public feed and of every creator's feed are cached
+ * for a time to live and incremented by {@link #pollCreated(Poll)}, so
+ * most pages are served without a count. The public count may also be
+ * taken from the planner's estimate instead of counting. The private
+ * feed depends on participations and is always counted.
+ */
+@Singleton
+public class PollCounts {
+
+    private final long timeToLiveMillis;
+    private final boolean approximatePublic;
+    private final int maxCreators;
+    private volatile Count publicCount;
+    private final ConcurrentMap<Long, Count> creatorCounts = new ConcurrentHashMap<>();
+    private final DatabaseExecutionContext databaseExecutionContext;
+    private final Metrics metrics;
+
+    @Inject
+    public PollCounts(Configuration configuration, DatabaseExecutionContext databaseExecutionContext, Metrics metrics) {
+        this.databaseExecutionContext = databaseExecutionContext;
+        this.metrics = metrics;
+        this.timeToLiveMillis = configuration.getMilliseconds("voteapp.polls.count.ttl", 60000L);
+        this.approximatePublic = configuration.getBoolean("voteapp.polls.count.approximate-public", false);
+        this.maxCreators = configuration.getInt("voteapp.polls.count.max-creators", 10000);
+        metrics.gauge("polls.count.creators", creatorCounts::size);
+    }
+
+    public Total publicCount() {
+        Count cached = publicCount;
+        if(cached != null && cached.isFresh()) {
+            metrics.increment("polls.count.hits");
+            return new Total(cached.value::get);
+        }
+        metrics.increment("polls.count.misses");
+        if(approximatePublic) {
+            Count estimated = new Count(Poll.estimatePublicPolls(), timeToLiveMillis);
+            publicCount = estimated;
+            return new Total(estimated.value::get);
+        }
+        return new Total(() -> {
+            Count counted = new Count(Poll.countPublicPolls(), timeToLiveMillis);
+            publicCount = counted;
+            return counted.value.get();
+        }, databaseExecutionContext);
+    }
+
+    public Total createdCount(Long creatorId) {
+        Count cached = creatorCounts.get(creatorId);
+        if(cached != null && cached.isFresh()) {
+            metrics.increment("polls.count.hits");
+            return new Total(cached.value::get);
+        }
+        metrics.increment("polls.count.misses");
+        return new Total(() -> {
+            Count counted = new Count(Poll.countCreatedPolls(creatorId), timeToLiveMillis);
+            if(creatorCounts.size() >= maxCreators) {
+                //Counts are cheap to read again, start over instead of tracking usage.
+                creatorCounts.clear();
+            }
+            creatorCounts.put(creatorId, counted);
+            return counted.value.get();
+        }, databaseExecutionContext);
+    }
+
+    public Total privateCount(Long voterId) {
+        return new Total(() -> Poll.countPrivatePolls(voterId), databaseExecutionContext);
+    }
+
+    /**
+     * Counts the poll in the cached counts of its feeds. Call it after the
+     * poll is committed.
+     */
+    public void pollCreated(Poll poll) {
+        Count cached = publicCount;
+        if(cached != null && "Public".equals(poll.visibility)) {
+            cached.value.incrementAndGet();
+        }
+        Count created = creatorCounts.get(poll.creator.id);
+        if(created != null) {
+            created.value.incrementAndGet();
+        }
+    }
+
+    /**
+     * The total of a feed, either known or counted on the database executor
+     * while the page is read. A count that has not started when it is
+     * waited for runs on the waiting thread instead, so page queries that
+     * fill every database thread never wait for counts queued behind them.
+     */
+    public static final class Total implements IntSupplier {
+
+        private final IntSupplier count;
+        private final AtomicBoolean started = new AtomicBoolean();
+        private final CompletableFuture<Integer> counting;
+
+        private Total(IntSupplier known) {
+            this.count = known;
+            this.counting = null;
+        }
+
+        private Total(IntSupplier count, BoundedExecutor executor) {
+            this.count = count;
+            this.counting = executor.supplyAsync(() -> started.compareAndSet(false, true) ? count.getAsInt() : null)
+                    .toCompletableFuture();
+        }
+
+        /**
+         * Counts on the calling thread if the count has not started, also
+         * when a full database executor rejected it, since the rows of the
+         * page were already fetched.
+         */
+        @Override
+        public int getAsInt() {
+            if(counting == null) {
+                return count.getAsInt();
+            }
+            if(started.compareAndSet(false, true)) {
+                counting.cancel(false);
+                return count.getAsInt();
+            }
+            try {
+                return counting.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PersistenceException("Interrupted while counting polls.", e);
+            } catch (ExecutionException e) {
+                throw new PersistenceException("Could not count polls.", e.getCause());
+            }
+        }
+
+        /**
+         * Drops the count if it has not started, call it when the page query
+         * fails.
+         */
+        public void cancel() {
+            if(counting != null && started.compareAndSet(false, true)) {
+                counting.cancel(false);
+            }
+        }
+    }
+
+    private static final class Count {
+
+        final AtomicInteger value;
+        final long expiresAtMillis;
+
+        Count(int value, long timeToLiveMillis) {
+            this.value = new AtomicInteger(value);
+            this.expiresAtMillis = System.currentTimeMillis() + timeToLiveMillis;
+        }
+
+        boolean isFresh() {
+            return expiresAtMillis > System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package services;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import play.Configuration;
+import play.cache.CacheApi;
+import play.cache.NamedCache;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class caches rendered poll documents of <code>GET /polls/:id</code>
+ * in the <code>poll-cache</code> of Play's cache module. Every poll has a
+ * version in the same cache that is replaced whenever its votes or
+ * attributes change, and a cached document is only served while it was
+ * rendered at the current version of its poll. Versions are unique, so a
+ * version that was evicted and read again outdates the documents of its
+ * poll as well. Entries are bounded by count and expire after a time to
+ * live.
+ *
+ * Versions are only replaced by changes on this server. Documents may
+ * miss the changes of other servers for the time to live, which is kept
+ * short for that reason.
+ *
+ * Documents contain absolute links, so they are cached per host.
+ */
+@Singleton
+public class PollDocumentCache {
+
+    public static final String CACHE_NAME = "poll-cache";
+
+    private final CacheApi cache;
+    private final int timeToLiveSeconds;
+    private final AtomicLong nextVersion = new AtomicLong();
+    private final Metrics metrics;
+
+    @Inject
+    public PollDocumentCache(@NamedCache(CACHE_NAME) CacheApi cache, CacheManager cacheManager,
+                             Configuration configuration, Metrics metrics) {
+        this.cache = cache;
+        this.metrics = metrics;
+        //Ehcache counts whole seconds and keeps entries with 0 forever, round up.
+        long timeToLiveMillis = configuration.getMilliseconds("voteapp.polls.cache.ttl", 10000L);
+        this.timeToLiveSeconds = (int) Math.max(1L, (timeToLiveMillis + 999L) / 1000L);
+        //Play creates named caches from the default cache configuration, bound it here.
+        Ehcache ehcache = cacheManager.getEhcache(CACHE_NAME);
+        ehcache.getCacheConfiguration().setMaxEntriesLocalHeap(configuration.getLong("voteapp.polls.cache.max-entries", 10000L));
+        ehcache.setStatisticsEnabled(true);
+        metrics.gauge("polls.cache.size", ehcache::getSize);
+        metrics.gauge("polls.cache.hits", () -> ehcache.getLiveCacheStatistics().getCacheHitCount());
+        metrics.gauge("polls.cache.misses", () -> ehcache.getLiveCacheStatistics().getCacheMissCount());
+        metrics.gauge("polls.cache.evictions", () -> ehcache.getLiveCacheStatistics().getEvictedCount());
+        metrics.gauge("polls.cache.expirations", () -> ehcache.getLiveCacheStatistics().getExpiredCount());
+    }
+
+    /**
+     * @return The poll's current version. Read it before the poll's data
+     * is loaded so that a concurrent change can only make the rendered
+     * document look outdated, never current.
+     */
+    public long version(Long pollId) {
+        Long version = cache.get(versionKey(pollId));
+        if(version == null) {
+            //A concurrent change may replace it, which only outdates this version.
+            version = nextVersion.incrementAndGet();
+            cache.set(versionKey(pollId), version, timeToLiveSeconds);
+        }
+        return version;
+    }
+
+    /**
+     * Marks every cached document of the poll as outdated. Call it after a
+     * vote or a change of the poll is committed.
+     */
+    public void pollChanged(Long pollId) {
+        cache.set(versionKey(pollId), nextVersion.incrementAndGet(), timeToLiveSeconds);
+    }
+
+    /**
+     * @return The cached document if it is still current, otherwise null.
+     */
+    public PollDocument get(String pollCode, String host) {
+        PollDocument document = cache.get(key(pollCode, host));
+        if(document != null && !Long.valueOf(document.version).equals(cache.get(versionKey(document.pollId)))) {
+            metrics.increment("polls.cache.stale");
+            return null;
+        }
+        return document;
+    }
+
+    public void put(String pollCode, String host, PollDocument document) {
+        cache.set(key(pollCode, host), document, timeToLiveSeconds);
+    }
+
+    private static String key(String pollCode, String host) {
+        return pollCode + "@" + host;
+    }
+
+    private static String versionKey(Long pollId) {
+        return "version:" + pollId;
+    }
+
+    /**
+     * A rendered poll document along with what is needed to authorize a
+     * caller without loading the poll.
+     */
+    public static final class PollDocument {
+
+        public final Long pollId;
+        public final String visibility;
+        public final long version;
+        public final String body;
+
+        public PollDocument(Long pollId, String visibility, long version, String body) {
+            this.pollId = pollId;
+            this.visibility = visibility;
+            this.version = version;
+            this.body = body;
+        }
+    }
+}
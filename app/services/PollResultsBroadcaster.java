@@ -0,0 +1,190 @@
+package services;
+
+import akka.Done;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import akka.stream.OverflowStrategy;
+import akka.stream.javadsl.Source;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import models.Option;
+import play.Configuration;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import play.libs.Json;
+import scala.concurrent.duration.Duration;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class pushes live poll results to streaming subscribers. The vote
+ * path marks a poll as changed with {@link #pollChanged(Long)} and
+ * once per interval every changed poll that has subscribers is read and
+ * serialized once, and the same frame is sent to all of its subscribers.
+ * Many votes within an interval therefore cost one read and one
+ * serialization, no matter how many clients are listening.
+ *
+ * Votes committed by other servers are not marked here, so every tick
+ * also reads the total votes of all subscribed polls with one query and
+ * publishes the polls whose total moved since their last frame.
+ *
+ * Subscribers that can not keep up lose their oldest frames, only the
+ * latest tally matters.
+ */
+@Singleton
+public class PollResultsBroadcaster {
+
+    private final TallyAggregator tallyAggregator;
+    private final DatabaseExecutionContext databaseExecutionContext;
+    private final int bufferSize;
+    private final ConcurrentMap<Long, PollSubscribers> subscribers = new ConcurrentHashMap<>();
+    //Changed polls, drained on every tick.
+    private final Set<Long> changedPolls = ConcurrentHashMap.newKeySet();
+    //Set while the totals of the subscribed polls are read.
+    private final AtomicBoolean checking = new AtomicBoolean();
+
+    @Inject
+    public PollResultsBroadcaster(Configuration configuration, ActorSystem actorSystem,
+                                  TallyAggregator tallyAggregator, DatabaseExecutionContext databaseExecutionContext,
+                                  ApplicationLifecycle appLifecycle) {
+        this.tallyAggregator = tallyAggregator;
+        this.databaseExecutionContext = databaseExecutionContext;
+        this.bufferSize = configuration.getInt("voteapp.polls.stream.buffer-size", 16);
+        long interval = configuration.getMilliseconds("voteapp.polls.stream.interval", 1000L);
+        Cancellable ticks = actorSystem.scheduler().schedule(
+                Duration.create(interval, TimeUnit.MILLISECONDS),
+                Duration.create(interval, TimeUnit.MILLISECONDS),
+                () -> publishChanges(),
+                actorSystem.dispatcher());
+        appLifecycle.addStopHook(() -> {
+            ticks.cancel();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * @return A source of json result frames for the poll. The current
+     * results are sent with the next tick, later frames only when the poll
+     * changes.
+     */
+    public Source<String, ?> subscribe(final Long pollId, final String pollCode) {
+        return Source.<String>actorRef(bufferSize, OverflowStrategy.dropHead())
+                .watchTermination((subscriber, termination) -> {
+                    subscribers.compute(pollId, (id, pollSubscribers) -> {
+                        PollSubscribers current = pollSubscribers == null ? new PollSubscribers(pollCode) : pollSubscribers;
+                        current.actors.add(subscriber);
+                        return current;
+                    });
+                    pollChanged(pollId);
+                    termination.whenComplete((Done done, Throwable failure) -> unsubscribe(pollId, subscriber));
+                    return subscriber;
+                });
+    }
+
+    /**
+     * Marks the poll's results as changed. Cheap enough to be called for
+     * every vote.
+     */
+    public void pollChanged(Long pollId) {
+        if(subscribers.containsKey(pollId)) {
+            changedPolls.add(pollId);
+        }
+    }
+
+    private void unsubscribe(Long pollId, ActorRef subscriber) {
+        subscribers.computeIfPresent(pollId, (id, pollSubscribers) -> {
+            pollSubscribers.actors.remove(subscriber);
+            return pollSubscribers.actors.isEmpty() ? null : pollSubscribers;
+        });
+    }
+
+    private void publishChanges() {
+        for(Long pollId : changedPolls) {
+            if(!changedPolls.remove(pollId) || !subscribers.containsKey(pollId)) continue;
+            try {
+                databaseExecutionContext.execute(() -> publish(pollId));
+            } catch (RejectedExecutionException e) {
+                //The database is busy, try again on the next tick.
+                changedPolls.add(pollId);
+            }
+        }
+        if(subscribers.isEmpty() || !checking.compareAndSet(false, true)) return;
+        try {
+            databaseExecutionContext.execute(this::publishCommittedElsewhere);
+        } catch (RejectedExecutionException e) {
+            //The database is busy, check again on the next tick.
+            checking.set(false);
+        }
+    }
+
+    private void publishCommittedElsewhere() {
+        try {
+            Map<Long, Long> totals = Option.sumVotesByPolls(new ArrayList<>(subscribers.keySet()));
+            for(Map.Entry<Long, Long> total : totals.entrySet()) {
+                PollSubscribers pollSubscribers = subscribers.get(total.getKey());
+                //Polls without a frame yet are published as changed polls.
+                if(pollSubscribers != null && pollSubscribers.votes >= 0 && pollSubscribers.votes != total.getValue()) {
+                    changedPolls.remove(total.getKey());
+                    publish(total.getKey());
+                }
+            }
+        } catch (RuntimeException e) {
+            Logger.error("Could not read the results of the streamed polls.", e);
+        } finally {
+            checking.set(false);
+        }
+    }
+
+    private void publish(Long pollId) {
+        PollSubscribers pollSubscribers = subscribers.get(pollId);
+        if(pollSubscribers == null) return;
+        try {
+            String frame = Json.stringify(tallyAggregator.read(() -> resultsFrame(pollId, pollSubscribers)));
+            for(ActorRef subscriber : pollSubscribers.actors) {
+                subscriber.tell(frame, ActorRef.noSender());
+            }
+        } catch (RuntimeException e) {
+            Logger.error("Could not publish results of poll " + pollSubscribers.pollCode + ".", e);
+        }
+    }
+
+    private ObjectNode resultsFrame(Long pollId, PollSubscribers pollSubscribers) {
+        ObjectNode resource = Json.newObject();
+        resource.put("type", "polls");
+        resource.put("id", pollSubscribers.pollCode);
+        ObjectNode attributes = Json.newObject();
+        ArrayNode options = Json.newArray();
+        long votes = 0;
+        for(Option pollOption : Option.findOptionTalliesByPoll(pollId)) {
+            votes += pollOption.votes;
+            ObjectNode option = Json.newObject();
+            option.put("id", pollOption.code);
+            option.put("option", pollOption.option);
+            option.put("votes", pollOption.votes + tallyAggregator.pendingDelta(pollOption.id));
+            options.add(option);
+        }
+        attributes.set("options", options);
+        resource.set("attributes", attributes);
+        pollSubscribers.votes = votes;
+        return resource;
+    }
+
+    private static final class PollSubscribers {
+
+        final String pollCode;
+        final Set<ActorRef> actors = ConcurrentHashMap.newKeySet();
+        //The persisted total of the last frame.
+        volatile long votes = -1;
+
+        PollSubscribers(String pollCode) {
+            this.pollCode = pollCode;
+        }
+    }
+}
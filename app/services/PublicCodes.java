@@ -0,0 +1,33 @@
+package services;
+
+import models.Utils;
+import play.Configuration;
+import play.Environment;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * This class sets the secret that public codes are encrypted with, see
+ * {@link Utils#configureCodes(String)}. It is bound as an eager singleton
+ * in {@link Module} so the secret is set before the first code is made.
+ *
+ * Codes are only unguessable while the secret is, so production requires
+ * <code>voteapp.codes.secret</code>. Other modes derive it from the
+ * application secret.
+ */
+@Singleton
+public class PublicCodes {
+
+    @Inject
+    public PublicCodes(Configuration configuration, Environment environment) {
+        String secret = configuration.getString("voteapp.codes.secret");
+        if(secret == null || secret.isEmpty()) {
+            if(environment.isProd()) {
+                throw new IllegalStateException("voteapp.codes.secret must be set in production.");
+            }
+            secret = configuration.getString("play.crypto.secret");
+        }
+        Utils.configureCodes(secret);
+    }
+}
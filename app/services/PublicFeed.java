@@ -0,0 +1,416 @@
+package services;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import models.Poll;
+import models.PollCursor;
+import models.PollPage;
+import models.PollView;
+import play.Configuration;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import scala.concurrent.duration.Duration;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps the newest public polls in memory, so that the first
+ * pages of the public feed are served without a query. The polls are
+ * held as an immutable snapshot of {@link PollView}s in feed order that
+ * is replaced as a whole: created public polls are put in front of it
+ * and committed votes are added to the tallies of its polls.
+ *
+ * The snapshot is read again from the database on an interval, without
+ * holding up commits. Every commit that changes it takes a ticket with
+ * {@link #beginCommit()} right before the transaction commits. Changes
+ * applied while a refresh reads are kept and caught up on the new
+ * snapshot: those of tickets taken after the read are applied again, and
+ * polls changed by commits that overlapped the read are taken from the
+ * previous snapshot, which applied every change, or cut off the new one.
+ * No vote or poll is counted twice or lost. Pages that reach beyond the
+ * snapshot are left to the database.
+ */
+@Singleton
+public class PublicFeed {
+
+    private static final long COMMIT_WAIT_MILLIS = 1000L;
+
+    private final boolean enabled;
+    private final int size;
+    private final TallyAggregator tallyAggregator;
+    private final Metrics metrics;
+    private volatile Snapshot snapshot;
+    //Tickets in the order commits began, and those not ended yet.
+    private final AtomicLong tickets = new AtomicLong();
+    private final Set<Long> committing = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    //Changes applied while a refresh reads, guarded by this.
+    private List<Change> journal;
+
+    @Inject
+    public PublicFeed(Configuration configuration, ActorSystem actorSystem, TallyAggregator tallyAggregator,
+                      DatabaseExecutionContext databaseExecutionContext, Metrics metrics,
+                      ApplicationLifecycle appLifecycle) {
+        this.enabled = configuration.getBoolean("voteapp.polls.public-feed.enabled", true);
+        this.size = configuration.getInt("voteapp.polls.public-feed.size", 200);
+        this.tallyAggregator = tallyAggregator;
+        this.metrics = metrics;
+        if(!enabled) return;
+        metrics.gauge("polls.public-feed.size", () -> snapshot == null ? 0 : snapshot.polls.size());
+        long interval = configuration.getMilliseconds("voteapp.polls.public-feed.refresh-interval", 30000L);
+        //The first snapshot is read once the application runs, pages are read
+        //from the database until then.
+        Cancellable refreshes = actorSystem.scheduler().schedule(
+                Duration.Zero(),
+                Duration.create(interval, TimeUnit.MILLISECONDS),
+                () -> {
+                    try {
+                        databaseExecutionContext.execute(this::refresh);
+                    } catch (RejectedExecutionException e) {
+                        //The database is busy, refresh on the next tick.
+                    }
+                },
+                actorSystem.dispatcher());
+        appLifecycle.addStopHook(() -> {
+            refreshes.cancel();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * @return The keyset page that starts at the cursor, or null if it has
+     * to be read from the database.
+     */
+    public Page page(PollCursor cursor, int pageSize) {
+        Snapshot current = snapshot;
+        if(current == null) return null;
+        List<PollView> polls = current.polls;
+        int start;
+        int end;
+        if(cursor == null || cursor.after) {
+            start = cursor == null ? 0 : indexOf(polls, cursor, false);
+            end = start + pageSize;
+            if(end >= polls.size() && !current.complete) return miss();
+            return hit(new Page(polls.subList(Math.min(start, polls.size()), Math.min(end, polls.size())),
+                    end < polls.size(), cursor != null));
+        }
+        //Polls before the cursor are a prefix of the snapshot unless the
+        //cursor lies beyond it.
+        end = indexOf(polls, cursor, true);
+        if(end >= polls.size() && !current.complete) return miss();
+        start = Math.max(0, end - pageSize);
+        return hit(new Page(polls.subList(start, end), true, start > 0));
+    }
+
+    /**
+     * @return The polls of the offset page, or null if it has to be read
+     * from the database.
+     */
+    public List<PollView> offsetPage(int page, int pageSize) {
+        Snapshot current = snapshot;
+        if(current == null) return null;
+        long start = (long) page * pageSize;
+        long end = start + pageSize;
+        if(end > current.polls.size() && !current.complete) {
+            miss();
+            return null;
+        }
+        metrics.increment("polls.public-feed.hits");
+        return current.polls.subList((int) Math.min(start, current.polls.size()), (int) Math.min(end, current.polls.size()));
+    }
+
+    /**
+     * @return The number of public polls if the snapshot holds all of
+     * them, otherwise -1.
+     */
+    public int completeCount() {
+        Snapshot current = snapshot;
+        return current != null && current.complete ? current.polls.size() : -1;
+    }
+
+    /**
+     * Takes the ticket of a commit of votes or polls. Call it right before
+     * the transaction commits, report its changes with the ticket after it
+     * has committed and end it with {@link #endCommit(long)} either way.
+     */
+    public long beginCommit() {
+        if(!enabled) return 0L;
+        long ticket = tickets.incrementAndGet();
+        committing.add(ticket);
+        return ticket;
+    }
+
+    public void endCommit(long ticket) {
+        if(!enabled) return;
+        committing.remove(ticket);
+        if(refreshing.get()) {
+            synchronized(this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Puts a committed public poll into the snapshot. The creator must be
+     * loaded already, this runs after the commit and queries nothing.
+     */
+    public void pollCreated(long ticket, Poll poll) {
+        if(!enabled || !"Public".equals(poll.visibility)) return;
+        PollView view = PollView.of(poll, option -> 0L);
+        synchronized(this) {
+            if(journal != null) journal.add(new Change(ticket, poll.id, null, view));
+            Snapshot current = snapshot;
+            if(current == null) return;
+            List<PollView> polls = new ArrayList<>(current.polls.size() + 1);
+            polls.addAll(current.polls);
+            insert(polls, view);
+            boolean complete = current.complete;
+            if(polls.size() > size) {
+                polls.remove(polls.size() - 1);
+                complete = false;
+            }
+            snapshot = new Snapshot(polls, complete);
+        }
+    }
+
+    /**
+     * Adds a committed ballot to the tallies of the snapshot.
+     */
+    public void votesCommitted(long ticket, Long pollId, List<Long> optionIds) {
+        if(!enabled) return;
+        Set<Long> chosen = new HashSet<>(optionIds);
+        synchronized(this) {
+            if(journal != null) journal.add(new Change(ticket, pollId, chosen, null));
+            Snapshot current = snapshot;
+            if(current == null) return;
+            Integer index = current.indexes.get(pollId);
+            if(index == null) return;
+            List<PollView> polls = new ArrayList<>(current.polls);
+            polls.set(index, polls.get(index).withVotes(chosen));
+            snapshot = new Snapshot(polls, current.complete, current.indexes);
+        }
+    }
+
+    private void refresh() {
+        //A refresh that outlasts the interval is not overlapped by the next one.
+        if(!refreshing.compareAndSet(false, true)) return;
+        try {
+            synchronized(this) {
+                journal = new ArrayList<>();
+            }
+            Snapshot newest = tallyAggregator.read(this::readSnapshot);
+            //Commits with later tickets began after the read and are not part of it.
+            long lastTicket = tickets.get();
+            synchronized(this) {
+                if(!awaitCommits(lastTicket)) {
+                    Logger.warn("Commits did not end in time, the public poll feed is refreshed on the next tick.");
+                    return;
+                }
+                snapshot = catchUp(newest, lastTicket);
+            }
+        } catch (RuntimeException e) {
+            Logger.error("Could not refresh the public poll feed.", e);
+        } finally {
+            synchronized(this) {
+                journal = null;
+            }
+            refreshing.set(false);
+        }
+    }
+
+    /**
+     * Waits, releasing the monitor, until the commits of the tickets up to
+     * the given one have reported their changes. They are committing
+     * already, so this takes no longer than their commit.
+     */
+    private boolean awaitCommits(long lastTicket) {
+        long deadline = System.currentTimeMillis() + COMMIT_WAIT_MILLIS;
+        while(committing.stream().anyMatch(ticket -> ticket <= lastTicket)) {
+            long remaining = deadline - System.currentTimeMillis();
+            if(remaining <= 0) return false;
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The newly read snapshot with the journaled changes it may
+     * miss.
+     */
+    private Snapshot catchUp(Snapshot newest, long lastTicket) {
+        Snapshot previous = snapshot;
+        List<PollView> polls = new ArrayList<>(newest.polls);
+        boolean complete = newest.complete;
+        //Polls changed by commits that overlapped the read, which may or may not hold the change.
+        Set<Long> uncertain = new HashSet<>();
+        Set<Long> uncertainCreated = new HashSet<>();
+        for(Change change : journal) {
+            if(change.ticket > lastTicket) continue;
+            uncertain.add(change.pollId);
+            if(change.created != null) uncertainCreated.add(change.pollId);
+        }
+        for(Change change : journal) {
+            if(change.ticket <= lastTicket || uncertain.contains(change.pollId)) continue;
+            int index = indexOf(polls, change.pollId);
+            if(change.created != null && index < 0) {
+                insert(polls, change.created);
+            } else if(change.optionIds != null && index >= 0) {
+                polls.set(index, polls.get(index).withVotes(change.optionIds));
+            }
+        }
+        //The previous snapshot applied every change, its views of these polls are exact.
+        Set<Long> unknown = new HashSet<>();
+        boolean missingCreated = false;
+        for(Long pollId : uncertain) {
+            Integer previousIndex = previous == null ? null : previous.indexes.get(pollId);
+            int index = indexOf(polls, pollId);
+            if(previousIndex != null) {
+                PollView view = previous.polls.get(previousIndex);
+                if(index >= 0) {
+                    polls.set(index, view);
+                } else {
+                    insert(polls, view);
+                }
+            } else if(index >= 0) {
+                unknown.add(pollId);
+            } else if(uncertainCreated.contains(pollId)) {
+                //Created and not read, it belongs at the front.
+                missingCreated = true;
+            }
+        }
+        //Polls of unknown tallies and the ones after them are left to the database.
+        int end = missingCreated ? 0 : polls.size();
+        for(int i = 0; i < end; i++) {
+            if(unknown.contains(polls.get(i).id)) end = i;
+        }
+        if(end < polls.size()) {
+            polls = new ArrayList<>(polls.subList(0, end));
+            complete = false;
+        }
+        while(polls.size() > size) {
+            polls.remove(polls.size() - 1);
+            complete = false;
+        }
+        return new Snapshot(polls, complete);
+    }
+
+    private Snapshot readSnapshot() {
+        PollPage newest = Poll.findPublicPollsPage(null, size);
+        List<PollView> polls = new ArrayList<>(newest.polls.size());
+        for(Poll poll : newest.polls) {
+            //Include votes that are accepted but not flushed yet.
+            polls.add(PollView.of(poll, option -> option.votes + tallyAggregator.pendingDelta(option.id)));
+        }
+        return new Snapshot(polls, !newest.hasNext);
+    }
+
+    private static int indexOf(List<PollView> polls, Long pollId) {
+        for(int i = 0; i < polls.size(); i++) {
+            if(polls.get(i).id.equals(pollId)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Inserts the view in feed order, newest first.
+     */
+    private static void insert(List<PollView> polls, PollView view) {
+        int index = 0;
+        while(index < polls.size() && isNewer(polls.get(index), view)) {
+            index++;
+        }
+        polls.add(index, view);
+    }
+
+    private static boolean isNewer(PollView poll, PollView other) {
+        int order = poll.timeCreated.compareTo(other.timeCreated);
+        return order > 0 || (order == 0 && poll.id > other.id);
+    }
+
+    /**
+     * @return The index of the first poll after the cursor, or of the
+     * cursor's own poll as well if it is included.
+     */
+    private static int indexOf(List<PollView> polls, PollCursor cursor, boolean includeCursor) {
+        int index = 0;
+        while(index < polls.size() && !cursor.precedes(polls.get(index))
+                && !(includeCursor && polls.get(index).id == cursor.id)) {
+            index++;
+        }
+        return index;
+    }
+
+    private Page hit(Page page) {
+        metrics.increment("polls.public-feed.hits");
+        return page;
+    }
+
+    private Page miss() {
+        metrics.increment("polls.public-feed.misses");
+        return null;
+    }
+
+    public static final class Page {
+
+        public final List<PollView> polls;
+        public final boolean hasNext;
+        public final boolean hasPrev;
+
+        public Page(List<PollView> polls, boolean hasNext, boolean hasPrev) {
+            this.polls = polls;
+            this.hasNext = hasNext;
+            this.hasPrev = hasPrev;
+        }
+    }
+
+    private static final class Change {
+
+        final long ticket;
+        final Long pollId;
+        //The chosen options of a ballot, or the view of a created poll.
+        final Set<Long> optionIds;
+        final PollView created;
+
+        Change(long ticket, Long pollId, Set<Long> optionIds, PollView created) {
+            this.ticket = ticket;
+            this.pollId = pollId;
+            this.optionIds = optionIds;
+            this.created = created;
+        }
+    }
+
+    private static final class Snapshot {
+
+        final List<PollView> polls;
+        //Whether the snapshot holds every public poll.
+        final boolean complete;
+        final Map<Long, Integer> indexes;
+
+        Snapshot(List<PollView> polls, boolean complete) {
+            this(polls, complete, new HashMap<>());
+            for(int i = 0; i < polls.size(); i++) {
+                indexes.put(polls.get(i).id, i);
+            }
+        }
+
+        //For snapshots that keep the order of polls.
+        Snapshot(List<PollView> polls, boolean complete, Map<Long, Integer> indexes) {
+            this.polls = Collections.unmodifiableList(polls);
+            this.complete = complete;
+            this.indexes = indexes;
+        }
+    }
+}
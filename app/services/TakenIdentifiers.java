@@ -0,0 +1,69 @@
+package services;
+
+import models.Voter;
+import play.Configuration;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * This class keeps Bloom filters of the emails and usernames of all
+ * voters, so that registrations with free identifiers are answered
+ * without querying the voter table. A filter that answers "maybe taken"
+ * is confirmed by a query, and the unique indexes of the voter table
+ * reject what the filters miss: identifiers taken concurrently or by
+ * other servers since the filters were built.
+ *
+ * The filters are built from the voter table at startup and every saved
+ * identifier must be recorded with {@link #emailTaken(String)} or
+ * {@link #usernameTaken(String)}. Identifiers that are given up stay in
+ * the filters, which only costs a query.
+ */
+@Singleton
+public class TakenIdentifiers {
+
+    private final BloomFilter emails;
+    private final BloomFilter usernames;
+    private final Metrics metrics;
+
+    @Inject
+    public TakenIdentifiers(Configuration configuration, Metrics metrics) {
+        this.metrics = metrics;
+        long expectedInsertions = configuration.getLong("voteapp.registration.bloom-filter.expected-insertions", 1000000L);
+        double falsePositiveRate = configuration.getDouble("voteapp.registration.bloom-filter.false-positive-rate", 0.01);
+        this.emails = new BloomFilter(expectedInsertions, falsePositiveRate);
+        this.usernames = new BloomFilter(expectedInsertions, falsePositiveRate);
+        //Fill the filters before the first registration is checked.
+        Voter.find.select("email, username").findEach(voter -> {
+            emails.add(voter.email);
+            usernames.add(voter.username);
+        });
+    }
+
+    /**
+     * @return False if no voter has the email, true if one might have it.
+     */
+    public boolean mightBeEmailTaken(String email) {
+        return record(emails.mightContain(email));
+    }
+
+    /**
+     * @return False if no voter has the username, true if one might have it.
+     */
+    public boolean mightBeUsernameTaken(String username) {
+        return record(usernames.mightContain(username));
+    }
+
+    public void emailTaken(String email) {
+        emails.add(email);
+    }
+
+    public void usernameTaken(String username) {
+        usernames.add(username);
+    }
+
+    private boolean record(boolean mightBeTaken) {
+        metrics.increment(mightBeTaken ? "registration.bloom.maybeTaken" : "registration.bloom.free");
+        return mightBeTaken;
+    }
+}
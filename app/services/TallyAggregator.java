@@ -0,0 +1,205 @@
+package services;
+
+import com.avaje.ebean.Ebean;
+import com.avaje.ebean.Transaction;
+import play.Configuration;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+
+/**
+ * This class is an opt-in write-behind buffer for option tallies. When
+ * enabled, accepted ballots add their increments to striped in-memory
+ * counters instead of updating the <code>option</code> rows directly. The
+ * accumulated deltas are written to <code>option.votes</code> in one
+ * batch every flush interval, or earlier once the flush threshold of
+ * pending increments is reached. A final flush runs when the application
+ * stops.
+ *
+ * Readers should add {@link #pendingDelta(Long)} to the persisted count
+ * so that results stay live between flushes, and run the read of the
+ * count within {@link #read(Supplier)}. A flush moves deltas out of the
+ * counters and commits them, a read that overlaps either step could count
+ * them twice or not at all.
+ */
+@Singleton
+public class TallyAggregator {
+
+    private static final String FLUSH_SQL = "update option set votes = votes + ?, time_updated = ? where id = ?";
+
+    private final boolean enabled;
+    private final long flushThreshold;
+    //Counters are never removed so that an increment can not race with a removal.
+    private final ConcurrentMap<Long, LongAdder> pending = new ConcurrentHashMap<>();
+    //Deltas that were taken out of the counters but are not committed yet.
+    private final ConcurrentMap<Long, Long> inFlight = new ConcurrentHashMap<>();
+    //Held exclusively while deltas move between the counters, inFlight and the database.
+    private final StampedLock flushLock = new StampedLock();
+    private final LongAdder pendingIncrements = new LongAdder();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final ScheduledExecutorService flusher;
+
+    @Inject
+    public TallyAggregator(Configuration configuration, ApplicationLifecycle appLifecycle) {
+        this.enabled = configuration.getBoolean("voteapp.tally.write-behind", false);
+        this.flushThreshold = configuration.getLong("voteapp.tally.flush-threshold", 1000L);
+        if(!enabled) {
+            this.flusher = null;
+            return;
+        }
+        long flushInterval = configuration.getMilliseconds("voteapp.tally.flush-interval", 1000L);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tally-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        appLifecycle.addStopHook(() -> {
+            flusher.shutdown();
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+            flush();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Adds one vote to every given option. Must only be called after the
+     * ballot itself has been committed.
+     */
+    public void increment(List<Long> optionIds) {
+        for(Long optionId : optionIds) {
+            pending.computeIfAbsent(optionId, id -> new LongAdder()).increment();
+        }
+        pendingIncrements.add(optionIds.size());
+        if(pendingIncrements.sum() >= flushThreshold && !flusher.isShutdown()
+                && flushRequested.compareAndSet(false, true)) {
+            flusher.execute(this::flushQuietly);
+        }
+    }
+
+    /**
+     * Runs a read of persisted tallies that adds their pending deltas. The
+     * read is run again if a flush moved deltas meanwhile, and then waits
+     * for the flush instead.
+     */
+    public <T> T read(Supplier<T> read) {
+        if(!enabled) return read.get();
+        long stamp = flushLock.tryOptimisticRead();
+        if(stamp != 0) {
+            T result = read.get();
+            if(flushLock.validate(stamp)) return result;
+        }
+        stamp = flushLock.readLock();
+        try {
+            return read.get();
+        } finally {
+            flushLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return The number of votes accepted for the option that are not
+     * yet written to the database.
+     */
+    public long pendingDelta(Long optionId) {
+        if(!enabled) return 0;
+        long delta = 0;
+        LongAdder counter = pending.get(optionId);
+        if(counter != null) delta += counter.sum();
+        Long flushing = inFlight.get(optionId);
+        if(flushing != null) delta += flushing;
+        return delta;
+    }
+
+    /**
+     * Writes all pending deltas with one JDBC batch in one transaction. If
+     * the write fails the deltas are put back and retried on the next flush.
+     */
+    public synchronized void flush() {
+        flushRequested.set(false);
+        //Sorted by option id, the order in which vote commits lock the rows too.
+        Map<Long, Long> deltas = new TreeMap<>();
+        long stamp = flushLock.writeLock();
+        try {
+            for(Map.Entry<Long, LongAdder> entry : pending.entrySet()) {
+                //Increments that race with this stay in the counter.
+                long delta = entry.getValue().sum();
+                if(delta != 0) {
+                    deltas.put(entry.getKey(), delta);
+                    inFlight.put(entry.getKey(), delta);
+                    entry.getValue().add(-delta);
+                }
+            }
+        } finally {
+            flushLock.unlockWrite(stamp);
+        }
+        if(deltas.isEmpty()) return;
+        long flushedIncrements = 0;
+        boolean committed = false;
+        Transaction transaction = Ebean.beginTransaction();
+        try (PreparedStatement statement = transaction.getConnection().prepareStatement(FLUSH_SQL)) {
+            Timestamp timeUpdated = Timestamp.from(Instant.now());
+            for(Map.Entry<Long, Long> delta : deltas.entrySet()) {
+                statement.setLong(1, delta.getValue());
+                statement.setTimestamp(2, timeUpdated);
+                statement.setLong(3, delta.getKey());
+                statement.addBatch();
+                flushedIncrements += delta.getValue();
+            }
+            statement.executeBatch();
+            //The deltas leave inFlight as they become visible in the database.
+            stamp = flushLock.writeLock();
+            try {
+                transaction.commit();
+                committed = true;
+                inFlight.keySet().removeAll(deltas.keySet());
+            } finally {
+                flushLock.unlockWrite(stamp);
+            }
+            pendingIncrements.add(-flushedIncrements);
+        } catch (SQLException | RuntimeException e) {
+            if(!committed) {
+                //Nothing was written, give the deltas back to the counters.
+                stamp = flushLock.writeLock();
+                try {
+                    inFlight.keySet().removeAll(deltas.keySet());
+                    for(Map.Entry<Long, Long> delta : deltas.entrySet()) {
+                        pending.computeIfAbsent(delta.getKey(), id -> new LongAdder()).add(delta.getValue());
+                    }
+                } finally {
+                    flushLock.unlockWrite(stamp);
+                }
+            }
+            throw new IllegalStateException("Could not flush option tallies.", e);
+        } finally {
+            transaction.end();
+        }
+        Logger.debug("Flushed " + flushedIncrements + " votes to " + deltas.size() + " options.");
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            Logger.error("Option tally flush failed.", e);
+        }
+    }
+}
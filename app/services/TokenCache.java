@@ -0,0 +1,128 @@
+package services;
+
+import models.Principal;
+import play.Configuration;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class remembers the principals of access tokens that have already
+ * been verified, so that a request with a known token skips the signature
+ * verification. Tokens are kept by their SHA-256 digest and expire at
+ * the token's own expiration or after a time to live, whichever comes
+ * first. Updating a voter must invalidate its entries with
+ * {@link #invalidateVoter(Long)}.
+ *
+ * The cache is bounded; when it is full expired entries are dropped first
+ * and then arbitrary ones.
+ */
+@Singleton
+public class TokenCache {
+
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long timeToLiveMillis;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @Inject
+    public TokenCache(Configuration configuration, Metrics metrics) {
+        this.enabled = configuration.getBoolean("voteapp.auth.token-cache.enabled", true);
+        this.maxEntries = configuration.getInt("voteapp.auth.token-cache.max-entries", 10000);
+        this.timeToLiveMillis = configuration.getMilliseconds("voteapp.auth.token-cache.ttl", 300000L);
+        metrics.gauge("auth.token-cache.size", entries::size);
+        metrics.gauge("auth.token-cache.hits", hits::sum);
+        metrics.gauge("auth.token-cache.misses", misses::sum);
+        metrics.gauge("auth.token-cache.hitRatioPercent", () -> {
+            long lookups = hits.sum() + misses.sum();
+            return lookups == 0 ? 0 : hits.sum() * 100 / lookups;
+        });
+    }
+
+    /**
+     * @return The principal of an already verified token, or null if the
+     * token has to be verified.
+     */
+    public Principal get(String accessToken) {
+        if(!enabled) return null;
+        String key = digest(accessToken);
+        Entry entry = entries.get(key);
+        if(entry != null && entry.expiresAtMillis <= System.currentTimeMillis()) {
+            entries.remove(key, entry);
+            entry = null;
+        }
+        if(entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.principal;
+    }
+
+    /**
+     * Remembers the principal of a verified token.
+     *
+     * @param expiration The expiration of the token, null if it has none.
+     */
+    public void put(String accessToken, Principal principal, Date expiration) {
+        if(!enabled) return;
+        long expiresAtMillis = System.currentTimeMillis() + timeToLiveMillis;
+        if(expiration != null) {
+            expiresAtMillis = Math.min(expiresAtMillis, expiration.getTime());
+        }
+        if(entries.size() >= maxEntries) {
+            evict();
+        }
+        entries.put(digest(accessToken), new Entry(principal, expiresAtMillis));
+    }
+
+    /**
+     * Forgets every token of the voter, the next request of the voter is
+     * verified again.
+     */
+    public void invalidateVoter(Long voterId) {
+        entries.values().removeIf(entry -> entry.principal.id.equals(voterId));
+    }
+
+    private void evict() {
+        long now = System.currentTimeMillis();
+        entries.values().removeIf(entry -> entry.expiresAtMillis <= now);
+        //Still full, make room for a tenth of the entries.
+        Iterator<Entry> iterator = entries.values().iterator();
+        while(entries.size() >= maxEntries - maxEntries / 10 && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private static String digest(String accessToken) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(sha256.digest(accessToken.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+
+    private static final class Entry {
+
+        final Principal principal;
+        final long expiresAtMillis;
+
+        Entry(Principal principal, long expiresAtMillis) {
+            this.principal = principal;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
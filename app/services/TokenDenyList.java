@@ -0,0 +1,97 @@
+package services;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import models.Principal;
+import models.RevokedToken;
+import models.Utils;
+import play.Configuration;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import scala.concurrent.duration.Duration;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.PersistenceException;
+import java.time.Instant;
+import java.util.concurrent.*;
+
+/**
+ * This class knows the ids (<code>jti</code>) of revoked access tokens.
+ * Revocations are persisted in the <code>revoked_token</code> table and
+ * kept in memory, so {@link #isRevoked(String)} is a single map lookup.
+ * The table is read incrementally on an interval to pick up revocations
+ * of other servers, and tokens are forgotten once they expire since an
+ * expired token is refused anyway.
+ */
+@Singleton
+public class TokenDenyList {
+
+    //Revocations committed late by other servers are still read within this grace.
+    private static final long REFRESH_GRACE_SECONDS = 60;
+
+    private final ConcurrentMap<String, Instant> revokedTokens = new ConcurrentHashMap<>();
+    private final DatabaseExecutionContext databaseExecutionContext;
+    private volatile Instant lastRefresh = Instant.EPOCH;
+
+    @Inject
+    public TokenDenyList(Configuration configuration, ActorSystem actorSystem, Metrics metrics,
+                         DatabaseExecutionContext databaseExecutionContext, ApplicationLifecycle appLifecycle) {
+        this.databaseExecutionContext = databaseExecutionContext;
+        metrics.gauge("auth.deny-list.size", revokedTokens::size);
+        long interval = configuration.getMilliseconds("voteapp.auth.deny-list.refresh-interval", 10000L);
+        //Load the whole list before the first token is checked.
+        refresh();
+        Cancellable refreshes = actorSystem.scheduler().schedule(
+                Duration.create(interval, TimeUnit.MILLISECONDS),
+                Duration.create(interval, TimeUnit.MILLISECONDS),
+                () -> {
+                    try {
+                        databaseExecutionContext.execute(this::refresh);
+                    } catch (RejectedExecutionException e) {
+                        //The database is busy, refresh on the next tick.
+                    }
+                },
+                actorSystem.dispatcher());
+        appLifecycle.addStopHook(() -> {
+            refreshes.cancel();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    public boolean isRevoked(String tokenId) {
+        return revokedTokens.containsKey(tokenId);
+    }
+
+    /**
+     * Revokes the principal's token, on the database executor.
+     *
+     * @return A stage that completes once the revocation is persisted.
+     */
+    public CompletionStage<Void> revoke(Principal principal) {
+        revokedTokens.put(principal.tokenId, principal.expiration);
+        return databaseExecutionContext.supplyAsync(() -> {
+            try {
+                new RevokedToken(principal.tokenId, principal.id, principal.expiration).save();
+            } catch (PersistenceException e) {
+                //Already revoked by a concurrent request.
+                if(!Utils.isUniqueViolation(e)) throw e;
+            }
+            return null;
+        });
+    }
+
+    private void refresh() {
+        Instant refreshStart = Instant.now();
+        try {
+            for(RevokedToken revokedToken : RevokedToken.findRevokedTokensSince(lastRefresh.minusSeconds(REFRESH_GRACE_SECONDS))) {
+                revokedTokens.put(revokedToken.tokenId, revokedToken.expiration);
+            }
+            revokedTokens.values().removeIf(expiration -> expiration.isBefore(refreshStart));
+            RevokedToken.deleteExpiredRevokedTokens();
+            lastRefresh = refreshStart;
+        } catch (RuntimeException e) {
+            Logger.error("Could not refresh revoked tokens.", e);
+        }
+    }
+}
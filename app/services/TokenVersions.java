@@ -0,0 +1,97 @@
+package services;
+
+import models.Voter;
+import play.Configuration;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class knows the current token version of voters, so that revoked
+ * tokens are refused without reading the voter on every request. A
+ * version is read from the database when a voter is seen and is kept for
+ * a time to live, after which it is read again to pick up revocations of
+ * other servers. Revocations on this server take effect at once through
+ * {@link #update(Long, long)}.
+ *
+ * Voters that no longer exist get version -1, which matches no token.
+ */
+@Singleton
+public class TokenVersions {
+
+    private static final long MISSING_VOTER = -1L;
+
+    private final int maxEntries;
+    private final long timeToLiveMillis;
+    private final ConcurrentMap<Long, Entry> versions = new ConcurrentHashMap<>();
+
+    @Inject
+    public TokenVersions(Configuration configuration, Metrics metrics) {
+        this.maxEntries = configuration.getInt("voteapp.auth.token-versions.max-entries", 100000);
+        this.timeToLiveMillis = configuration.getMilliseconds("voteapp.auth.token-versions.ttl", 10000L);
+        metrics.gauge("auth.token-versions.size", versions::size);
+    }
+
+    /**
+     * @return The current version of the voter, or null if it has to be
+     * loaded with {@link #load(Long)}.
+     */
+    public Long known(Long voterId) {
+        Entry entry = versions.get(voterId);
+        return entry == null || entry.expiresAtMillis <= System.currentTimeMillis() ? null : entry.version;
+    }
+
+    /**
+     * Reads the current version of the voter. Run it on the database
+     * executor.
+     */
+    public long load(Long voterId) {
+        Voter voter = Voter.find.select("tokenVersion").where().idEq(voterId).findUnique();
+        return loaded(voterId, voter == null ? MISSING_VOTER : voter.tokenVersion);
+    }
+
+    /**
+     * Records a version that was read along with the voter.
+     *
+     * @return The current version of the voter.
+     */
+    public long loaded(Long voterId, long version) {
+        if(versions.size() >= maxEntries) {
+            //Versions are cheap to read again, start over instead of tracking usage.
+            versions.clear();
+        }
+        return record(voterId, version);
+    }
+
+    /**
+     * Records the voter's new version after it has been committed, tokens
+     * with older versions are refused from now on.
+     */
+    public void update(Long voterId, long version) {
+        record(voterId, version);
+    }
+
+    private long record(Long voterId, long version) {
+        long now = System.currentTimeMillis();
+        Entry recorded = new Entry(version, now + timeToLiveMillis);
+        //Versions only grow, an unexpired higher version was updated while
+        //this one was read. Expired ones are replaced, the voter may be gone.
+        return versions.merge(voterId, recorded,
+                (current, next) -> current.expiresAtMillis > now && current.version > next.version
+                        ? new Entry(current.version, next.expiresAtMillis) : next)
+                .version;
+    }
+
+    private static final class Entry {
+
+        final long version;
+        final long expiresAtMillis;
+
+        Entry(long version, long expiresAtMillis) {
+            this.version = version;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
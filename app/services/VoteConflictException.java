@@ -0,0 +1,15 @@
+package services;
+
+/**
+ * Thrown when a voter has already voted on the poll of a ballot.
+ */
+public class VoteConflictException extends RuntimeException {
+
+    public VoteConflictException(String message) {
+        super(message);
+    }
+
+    public VoteConflictException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,178 @@
+package services;
+
+import models.Vote;
+import play.Configuration;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class group-commits ballots. Ballots that arrive within a short
+ * window (or until the batch is full) are written by the
+ * {@link VoteService} in one transaction, so the commit cost is shared by
+ * every ballot of the batch instead of being paid per request.
+ *
+ * Each submitted ballot gets its own {@link CompletionStage} which
+ * completes with its own vote or its own failure. Two ballots of the same
+ * voter on the same poll within a batch are resolved in memory, and when a
+ * batch fails as a whole its ballots are retried one by one so that a
+ * single conflicting ballot does not fail its neighbours.
+ *
+ * When group commit is disabled ballots are committed directly on the
+ * calling thread.
+ */
+@Singleton
+public class VoteIngestionQueue {
+
+    private final VoteService voteService;
+    private final Metrics metrics;
+    private final boolean enabled;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final BlockingQueue<PendingBallot> queue;
+    private final List<Thread> committers = new ArrayList<>();
+    private volatile boolean running = true;
+
+    @Inject
+    public VoteIngestionQueue(Configuration configuration, VoteService voteService, Metrics metrics,
+                              ApplicationLifecycle appLifecycle) {
+        this.voteService = voteService;
+        this.metrics = metrics;
+        this.enabled = configuration.getBoolean("voteapp.votes.group-commit.enabled", true);
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(
+                configuration.getMilliseconds("voteapp.votes.group-commit.window", 3L));
+        this.maxBatchSize = configuration.getInt("voteapp.votes.group-commit.max-batch-size", 64);
+        this.queue = new ArrayBlockingQueue<>(configuration.getInt("voteapp.votes.group-commit.queue-size", 10000));
+        metrics.gauge("votes.queue.depth", queue::size);
+        if(!enabled) return;
+
+        int committerCount = configuration.getInt("voteapp.votes.group-commit.committers", 2);
+        for(int i = 0; i < committerCount; i++) {
+            Thread committer = new Thread(this::commitLoop, "vote-committer-" + i);
+            committer.setDaemon(true);
+            committer.start();
+            committers.add(committer);
+        }
+        appLifecycle.addStopHook(() -> {
+            //Let the committers drain the queue before the database goes away.
+            running = false;
+            for(Thread committer : committers) {
+                committer.join(TimeUnit.SECONDS.toMillis(10));
+            }
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * Queues a ballot for the next batch.
+     *
+     * @return A stage that completes with the saved vote, or exceptionally
+     * with a {@link VoteConflictException} if the voter has already voted
+     * or a {@link RejectedExecutionException} if the queue is full.
+     */
+    public CompletionStage<Vote> submit(Ballot ballot) {
+        CompletableFuture<Vote> result = new CompletableFuture<>();
+        if(!enabled) {
+            try {
+                result.complete(voteService.commitVote(ballot));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+            return result;
+        }
+        if(!running || !queue.offer(new PendingBallot(ballot, result))) {
+            metrics.increment("votes.queue.rejected");
+            result.completeExceptionally(new RejectedExecutionException("Vote queue is full."));
+        }
+        return result;
+    }
+
+    private void commitLoop() {
+        List<PendingBallot> batch = new ArrayList<>(maxBatchSize);
+        while(running || !queue.isEmpty()) {
+            try {
+                PendingBallot first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if(first == null) continue;
+                batch.add(first);
+                long deadline = System.nanoTime() + windowNanos;
+                while(batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingBallot next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if(next == null) break;
+                    batch.add(next);
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                }
+                commit(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                Logger.error("Vote committer failed.", e);
+            } finally {
+                for(PendingBallot pending : batch) {
+                    if(!pending.result.isDone()) {
+                        pending.result.completeExceptionally(new IllegalStateException("Ballot was not committed."));
+                    }
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    private void commit(List<PendingBallot> batch) {
+        long commitStart = System.nanoTime();
+        //Only the first ballot of a voter on a poll takes part in the batch.
+        Set<String> voterPolls = new HashSet<>();
+        List<PendingBallot> accepted = new ArrayList<>(batch.size());
+        for(PendingBallot pending : batch) {
+            metrics.record("votes.queue.waitMicros", (commitStart - pending.enqueuedNanos) / 1000);
+            if(voterPolls.add(pending.ballot.voter.id + ":" + pending.ballot.poll.id)) {
+                accepted.add(pending);
+            } else {
+                pending.result.completeExceptionally(new VoteConflictException("A ballot was already cast for this poll."));
+            }
+        }
+        metrics.record("votes.batch.size", accepted.size());
+        List<Ballot> ballots = new ArrayList<>(accepted.size());
+        for(PendingBallot pending : accepted) {
+            ballots.add(pending.ballot);
+        }
+        try {
+            List<Vote> votes = voteService.commitVotes(ballots);
+            for(int i = 0; i < votes.size(); i++) {
+                accepted.get(i).result.complete(votes.get(i));
+            }
+        } catch (RuntimeException batchFailure) {
+            if(accepted.size() == 1) {
+                accepted.get(0).result.completeExceptionally(batchFailure);
+            } else {
+                //Isolate the failing ballots by committing the rest one by one.
+                metrics.increment("votes.batch.retried");
+                for(PendingBallot pending : accepted) {
+                    try {
+                        pending.result.complete(voteService.commitVote(pending.ballot));
+                    } catch (RuntimeException e) {
+                        pending.result.completeExceptionally(e);
+                    }
+                }
+            }
+        }
+        metrics.recordNanosAsMicros("votes.batch.commitMicros", commitStart);
+    }
+
+    private static final class PendingBallot {
+
+        final Ballot ballot;
+        final CompletableFuture<Vote> result;
+        final long enqueuedNanos = System.nanoTime();
+
+        PendingBallot(Ballot ballot, CompletableFuture<Vote> result) {
+            this.ballot = ballot;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package services;
+
+import com.avaje.ebean.Ebean;
+import com.avaje.ebean.Transaction;
+import models.Poll;
+import models.Utils;
+import models.Vote;
+import models.Voter;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.PersistenceException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * This class commits ballots. The {@link Vote} rows and the tallies of
+ * every chosen option are written within a single transaction. Tallies are
+ * incremented by the database itself (<code>votes = votes + n</code>) with
+ * one batched statement, so concurrent voters on the same option can never
+ * overwrite each other's count.
+ *
+ * Ballots that join a public poll insert the voter's participation within
+ * the same transaction.
+ *
+ * When the {@link TallyAggregator} is enabled the increments are handed
+ * to it after the votes have been committed instead.
+ */
+@Singleton
+public class VoteService {
+
+    private static final String INCREMENT_SQL =
+            "update option set votes = votes + ?, time_updated = ? where id = ? and poll_id = ?";
+    //A concurrent invitation may have created the participation already.
+    private static final String PARTICIPATION_SQL =
+            "insert into participation (voter_id, poll_id, code, time_updated, time_created) values (?, ?, ?, ?, ?)"
+            + " on conflict do nothing";
+
+    private final TallyAggregator tallyAggregator;
+    private final PollResultsBroadcaster pollResultsBroadcaster;
+    private final PollDocumentCache pollDocumentCache;
+    private final PublicFeed publicFeed;
+
+    @Inject
+    public VoteService(TallyAggregator tallyAggregator, PollResultsBroadcaster pollResultsBroadcaster,
+                       PollDocumentCache pollDocumentCache, PublicFeed publicFeed) {
+        this.tallyAggregator = tallyAggregator;
+        this.pollResultsBroadcaster = pollResultsBroadcaster;
+        this.pollDocumentCache = pollDocumentCache;
+        this.publicFeed = publicFeed;
+    }
+
+    /**
+     * Saves the vote and increments the chosen options atomically.
+     *
+     * @param voter The voter that submits the ballot.
+     * @param poll The poll the ballot belongs to.
+     * @param optionIds The database ids of the chosen options. They must
+     * belong to the given poll, otherwise the whole ballot is rolled back.
+     * @return The saved vote.
+     * @throws VoteConflictException If the voter has already voted.
+     */
+    public Vote commitVote(Voter voter, Poll poll, List<Long> optionIds) {
+        return commitVote(new Ballot(voter, poll, optionIds));
+    }
+
+    public Vote commitVote(Ballot ballot) {
+        return commitVotes(Collections.singletonList(ballot)).get(0);
+    }
+
+    /**
+     * Saves several ballots in one transaction. The vote inserts and the
+     * option increments are sent as one JDBC batch each. If any ballot
+     * fails none of them is saved.
+     *
+     * @return The saved votes in the order of the given ballots.
+     * @throws VoteConflictException If one of the voters has already voted.
+     */
+    public List<Vote> commitVotes(List<Ballot> ballots) {
+        List<Vote> votes = new ArrayList<>(ballots.size());
+        List<String> participationCodes = new ArrayList<>(ballots.size());
+        for(Ballot ballot : ballots) {
+            votes.add(new Vote(ballot.voter, ballot.poll));
+            participationCodes.add(ballot.joinPoll ? Utils.generateUniqueParticipationCode() : null);
+        }
+        Transaction transaction = Ebean.beginTransaction();
+        try {
+            transaction.setBatchMode(true);
+            transaction.setBatchSize(Math.max(votes.size(), 1));
+            for(Vote vote : votes) {
+                vote.save();
+            }
+            transaction.flushBatch();
+            insertParticipations(transaction, ballots, participationCodes);
+            if(!tallyAggregator.isEnabled()) {
+                incrementTallies(transaction, ballots);
+            }
+            //The public feed tells the tallies of this commit from the ones it reads.
+            long ticket = publicFeed.beginCommit();
+            try {
+                transaction.commit();
+                for(Ballot ballot : ballots) {
+                    if(tallyAggregator.isEnabled()) {
+                        tallyAggregator.increment(ballot.optionIds);
+                    }
+                    publicFeed.votesCommitted(ticket, ballot.poll.id, ballot.optionIds);
+                }
+            } finally {
+                publicFeed.endCommit(ticket);
+            }
+        } catch (PersistenceException e) {
+            if(Utils.isUniqueViolation(e)) {
+                throw new VoteConflictException("A ballot was already cast for this poll.", e);
+            }
+            throw e;
+        } finally {
+            transaction.end();
+        }
+        for(Ballot ballot : ballots) {
+            pollDocumentCache.pollChanged(ballot.poll.id);
+            pollResultsBroadcaster.pollChanged(ballot.poll.id);
+        }
+        return votes;
+    }
+
+    private static void insertParticipations(Transaction transaction, List<Ballot> ballots, List<String> codes) {
+        if(codes.stream().noneMatch(Objects::nonNull)) return;
+        try (PreparedStatement statement = transaction.getConnection().prepareStatement(PARTICIPATION_SQL)) {
+            Timestamp timeCreated = Timestamp.from(Instant.now());
+            for(int i = 0; i < ballots.size(); i++) {
+                if(codes.get(i) == null) continue;
+                statement.setLong(1, ballots.get(i).voter.id);
+                statement.setLong(2, ballots.get(i).poll.id);
+                statement.setString(3, codes.get(i));
+                statement.setTimestamp(4, timeCreated);
+                statement.setTimestamp(5, timeCreated);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        } catch (SQLException e) {
+            throw new PersistenceException("Could not insert participations.", e);
+        }
+    }
+
+    private static void incrementTallies(Transaction transaction, List<Ballot> ballots) {
+        //Sum the increments per option so that each row is updated once per batch.
+        //Rows are locked in option id order, as by the flush of the tally aggregator,
+        //so two batches over the same options never wait on each other in a cycle.
+        Map<Long, Long> optionPolls = new HashMap<>();
+        Map<Long, Long> increments = new TreeMap<>();
+        for(Ballot ballot : ballots) {
+            for(Long optionId : ballot.optionIds) {
+                optionPolls.put(optionId, ballot.poll.id);
+                increments.merge(optionId, 1L, Long::sum);
+            }
+        }
+        try (PreparedStatement statement = transaction.getConnection().prepareStatement(INCREMENT_SQL)) {
+            Timestamp timeUpdated = Timestamp.from(Instant.now());
+            for(Map.Entry<Long, Long> increment : increments.entrySet()) {
+                statement.setLong(1, increment.getValue());
+                statement.setTimestamp(2, timeUpdated);
+                statement.setLong(3, increment.getKey());
+                statement.setLong(4, optionPolls.get(increment.getKey()));
+                statement.addBatch();
+            }
+            for(int updatedRows : statement.executeBatch()) {
+                if(updatedRows != 1) {
+                    throw new IllegalStateException("Ballot options do not belong to the poll.");
+                }
+            }
+        } catch (SQLException e) {
+            throw new PersistenceException("Could not increment option tallies.", e);
+        }
+    }
+}
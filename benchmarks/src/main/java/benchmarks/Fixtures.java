@@ -0,0 +1,66 @@
+package benchmarks;
+
+import models.Option;
+import models.Poll;
+import models.Voter;
+import play.Application;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.mvc.Http;
+import play.test.Helpers;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Fixtures of the benchmarks. The models generate their codes against the
+ * database, so a running application (and database) is needed while the
+ * fixtures are built. The measured code itself does not hit the database.
+ */
+public final class Fixtures {
+
+    public static final String HOST = "localhost:9000";
+    private static Application application;
+
+    private Fixtures() {}
+
+    public static synchronized Application application() {
+        if(application == null) {
+            application = new GuiceApplicationBuilder().build();
+            Helpers.start(application);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> Helpers.stop(application)));
+        }
+        return application;
+    }
+
+    /**
+     * Binds a request to the current thread, as Play does for every request.
+     */
+    public static void bindContext(String accessToken) {
+        Http.RequestBuilder request = new Http.RequestBuilder().host(HOST);
+        if(accessToken != null) {
+            request.header("Authorization", "bearer " + accessToken);
+        }
+        Http.Context.current.set(new Http.Context(request));
+    }
+
+    public static Voter voter(long id) {
+        Voter voter = new Voter("User", "voter" + id + "@example.com", "voter_" + id,
+                "$2a$10$7EqJtq98hPqEX7fNZaFWoOhi5BWX4Z3FXcgy5tW3ePHZ4o2hVwUJ6", null);
+        voter.id = id;
+        return voter;
+    }
+
+    public static Poll poll(long id, Voter creator, int optionCount) {
+        Poll poll = new Poll(creator, "Public", "Single", "Which option do you prefer the most?",
+                Instant.now().plus(7, ChronoUnit.DAYS));
+        poll.id = id;
+        for(int i = 0; i < optionCount; i++) {
+            Option option = new Option("Option number " + i);
+            option.id = id * 1000 + i;
+            option.poll = poll;
+            option.votes = i * 7;
+            poll.options.add(option);
+        }
+        return poll;
+    }
+}
@@ -0,0 +1,69 @@
+package controllers;
+
+import benchmarks.Fixtures;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import models.Poll;
+import models.PollView;
+import models.Voter;
+import org.openjdk.jmh.annotations.*;
+import play.libs.Json;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The json-api rendering of users and polls, for polls with few, some and
+ * many options. A page holds the views of ten polls of two creators, as the
+ * feeds render them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RenderingBenchmark {
+
+    private static final int PAGE_SIZE = 10;
+
+    @Param({"2", "20", "500"})
+    public int optionCount;
+
+    private PollsController pollsController;
+    private Voter voter;
+    private Poll poll;
+    private List<PollView> page;
+
+    @Setup
+    public void setUp() {
+        pollsController = Fixtures.application().injector().instanceOf(PollsController.class);
+        Fixtures.bindContext(null);
+        voter = Fixtures.voter(1L);
+        Voter otherVoter = Fixtures.voter(2L);
+        poll = Fixtures.poll(1L, voter, optionCount);
+        page = new ArrayList<>(PAGE_SIZE);
+        for(int i = 0; i < PAGE_SIZE; i++) {
+            Poll pagePoll = Fixtures.poll(i + 1, i % 2 == 0 ? voter : otherVoter, optionCount);
+            page.add(PollView.of(pagePoll, option -> option.votes));
+        }
+    }
+
+    @Benchmark
+    public ObjectNode userDataObject() {
+        return VotersController.userDataObject(voter);
+    }
+
+    @Benchmark
+    public ObjectNode pollDataObject() {
+        return pollsController.pollDataObject(poll);
+    }
+
+    @Benchmark
+    public ObjectNode pollsPaginated() {
+        ObjectNode jsonResponseBody = Json.newObject();
+        pollsController.pollsPaginated(jsonResponseBody, page,
+                PollsController.pollPaginationLinks(1, PAGE_SIZE, 1000, "public"));
+        return jsonResponseBody;
+    }
+}
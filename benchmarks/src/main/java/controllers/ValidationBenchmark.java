@@ -0,0 +1,49 @@
+package controllers;
+
+import controllers.requests.Validators;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The regular expression validators of {@link Validators}, run on
+ * every registration and profile update.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ValidationBenchmark {
+
+    @Param({"valid", "invalid"})
+    public String input;
+
+    private String email;
+    private String username;
+    private String password;
+
+    @Setup
+    public void setUp() {
+        boolean valid = input.equals("valid");
+        email = valid ? "first.last@mail.example.com" : "first.last@mail";
+        username = valid ? "voter_2016" : "2016voter";
+        password = valid ? "Secret#2016" : "secret2016secret2016";
+    }
+
+    @Benchmark
+    public boolean isEmailValid() {
+        return Validators.isEmailValid(email);
+    }
+
+    @Benchmark
+    public boolean isUsernameValid() {
+        return Validators.isUsernameValid(username);
+    }
+
+    @Benchmark
+    public boolean isPasswordValid() {
+        return Validators.isPasswordValid(password);
+    }
+}
@@ -0,0 +1,63 @@
+package models;
+
+import benchmarks.Fixtures;
+import org.openjdk.jmh.annotations.*;
+import play.mvc.Http;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The token work done by {@link SecuredAction} for every secured request
+ * and by the token grant, along with the code generation used by every
+ * created resource.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class TokenBenchmark {
+
+    private Voter voter;
+    private String accessToken;
+    private Http.Context context;
+    //Blocks are counted locally, the measured code does not hit the database.
+    private final CodeGenerator codeGenerator = new CodeGenerator(CodeGenerator.keyOf("benchmark"), new AtomicLong()::incrementAndGet);
+
+    @Setup
+    public void setUp() {
+        Fixtures.application();
+        voter = Fixtures.voter(1L);
+        accessToken = Token.signAccessToken(voter);
+        Fixtures.bindContext(accessToken);
+        context = Http.Context.current();
+    }
+
+    @Benchmark
+    public String createAccessToken() {
+        //The update of the voter is left out, it is a database write.
+        return Token.signAccessToken(voter);
+    }
+
+    @Benchmark
+    public String confirmAccessToken() {
+        return Token.confirmAccessToken(accessToken);
+    }
+
+    @Benchmark
+    public String extractToken() {
+        return SecuredAction.extractToken(context);
+    }
+
+    @Benchmark
+    public String generateRandomString() {
+        return Utils.generateRandomString(5);
+    }
+
+    @Benchmark
+    public String generateCode() {
+        return codeGenerator.nextCode();
+    }
+}
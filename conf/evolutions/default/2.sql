@@ -0,0 +1,9 @@
+# --- !Ups
+
+alter table voter alter column access_token type varchar(1024);
+alter table voter add column token_version bigint not null default 0;
+
+# --- !Downs
+
+alter table voter drop column if exists token_version;
+alter table voter alter column access_token type varchar(255);
@@ -0,0 +1,17 @@
+# --- !Ups
+
+create table revoked_token (
+  id                            bigserial not null,
+  token_id                      varchar(64) not null,
+  voter_id                      bigint not null,
+  expiration                    timestamp not null,
+  time_created                  timestamp not null,
+  constraint uq_revoked_token_token_id unique (token_id),
+  constraint pk_revoked_token primary key (id)
+);
+
+create index ix_revoked_token_time_created on revoked_token (time_created);
+
+# --- !Downs
+
+drop table if exists revoked_token cascade;
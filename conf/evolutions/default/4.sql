@@ -0,0 +1,9 @@
+# --- !Ups
+
+create unique index uq_voter_email on voter (email);
+create unique index uq_voter_username on voter (username);
+
+# --- !Downs
+
+drop index if exists uq_voter_username;
+drop index if exists uq_voter_email;
@@ -0,0 +1,7 @@
+# --- !Ups
+
+create sequence public_code_block_seq;
+
+# --- !Downs
+
+drop sequence if exists public_code_block_seq;
@@ -0,0 +1,25 @@
+# --- !Ups
+
+create unique index uq_voter_code on voter (code);
+create unique index uq_poll_code on poll (code);
+create unique index uq_option_code on option (code);
+
+-- Public and private feeds, newest first.
+create index ix_poll_visibility_time_created on poll (visibility, time_created, id);
+-- Created feed, also serves the creator foreign key.
+create index ix_poll_creator_id_time_created on poll (creator_id, time_created, id);
+drop index if exists ix_poll_creator_id;
+
+create index ix_revoked_token_expiration on revoked_token (expiration);
+
+# --- !Downs
+
+drop index if exists ix_revoked_token_expiration;
+
+create index ix_poll_creator_id on poll (creator_id);
+drop index if exists ix_poll_creator_id_time_created;
+drop index if exists ix_poll_visibility_time_created;
+
+drop index if exists uq_option_code;
+drop index if exists uq_poll_code;
+drop index if exists uq_voter_code;
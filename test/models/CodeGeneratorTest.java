@@ -0,0 +1,37 @@
+package models;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CodeGeneratorTest {
+
+    private static final int CODES = 300000;
+
+    @Test
+    public void testCodesAreDistinctAndFixedWidth() {
+        //Blocks are counted locally, starting near the end of the value space.
+        AtomicLong blocks = new AtomicLong((1L << 44) - 2);
+        CodeGenerator codeGenerator = new CodeGenerator(CodeGenerator.keyOf("test"), blocks::incrementAndGet);
+        Set<String> codes = new HashSet<>();
+        for(int i = 0; i < CODES; i++) {
+            String code = codeGenerator.nextCode();
+            assertEquals(CodeGenerator.CODE_LENGTH, code.length());
+            assertTrue(code, code.matches("[A-Za-z0-9]+"));
+            assertTrue("Duplicate code " + code, codes.add(code));
+        }
+    }
+
+    @Test
+    public void testCodesDependOnTheSecret() {
+        CodeGenerator first = new CodeGenerator(CodeGenerator.keyOf("first"), () -> 1L);
+        CodeGenerator second = new CodeGenerator(CodeGenerator.keyOf("second"), () -> 1L);
+        assertNotEquals(first.nextCode(), second.nextCode());
+    }
+}
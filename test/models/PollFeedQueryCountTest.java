@@ -0,0 +1,90 @@
+package models;
+
+import com.avaje.ebean.Ebean;
+import com.avaje.ebean.meta.MetaQueryPlanStatistic;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.Application;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.test.WithApplication;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+
+public class PollFeedQueryCountTest extends WithApplication {
+
+    private static final int POLLS = 60;
+    private static final List<Class<?>> RENDERED_TYPES = Arrays.asList(Poll.class, Option.class, Voter.class);
+
+    private Voter creator;
+
+    @Override
+    protected Application provideApplication() {
+        //Background refreshes would run queries of their own while a page is counted.
+        return new GuiceApplicationBuilder()
+                .configure("voteapp.polls.public-feed.enabled", false)
+                .configure("voteapp.auth.deny-list.refresh-interval", "1 hour")
+                .build();
+    }
+
+    @Before
+    public void createPolls() {
+        String prefix = "pfq" + System.nanoTime() % 100000;
+        creator = new Voter("User", prefix + "@creator.test", prefix + "_creator", null, null);
+        creator.save();
+        for(int i = 0; i < POLLS; i++) {
+            Poll poll = new Poll(creator, "Public", "Single", "Query count test " + i, Instant.now().plus(1, ChronoUnit.DAYS));
+            poll.options.add(new Option("Yes"));
+            poll.options.add(new Option("No"));
+            poll.options.add(new Option("Maybe"));
+            poll.save();
+        }
+    }
+
+    @After
+    public void deletePolls() {
+        Ebean.createSqlUpdate("delete from option where poll_id in (select id from poll where creator_id = :creator)")
+                .setParameter("creator", creator.id).execute();
+        Ebean.createSqlUpdate("delete from poll where creator_id = :creator").setParameter("creator", creator.id).execute();
+        creator.delete();
+    }
+
+    @Test
+    public void testOffsetPageQueriesDoNotGrowWithPageSize() {
+        assertEquals(queriesToRender(() -> Poll.findCreatedPollsPagedList(0, 5, creator.id).getList()),
+                queriesToRender(() -> Poll.findCreatedPollsPagedList(0, 50, creator.id).getList()));
+    }
+
+    @Test
+    public void testKeysetPageQueriesDoNotGrowWithPageSize() {
+        assertEquals(queriesToRender(() -> Poll.findCreatedPollsPage(null, 5, creator.id).polls),
+                queriesToRender(() -> Poll.findCreatedPollsPage(null, 50, creator.id).polls));
+    }
+
+    /**
+     * @return The number of poll, option and voter queries run to load a
+     * page and read what the poll listings render of it.
+     */
+    private static long queriesToRender(Supplier<List<Poll>> page) {
+        Ebean.getDefaultServer().getMetaInfoManager().collectQueryPlanStatistics(true);
+        for(Poll poll : page.get()) {
+            poll.creator.code.length();
+            for(Option option : poll.options) {
+                option.option.length();
+            }
+        }
+        long queries = 0;
+        for(MetaQueryPlanStatistic statistic : Ebean.getDefaultServer().getMetaInfoManager().collectQueryPlanStatistics(true)) {
+            if(RENDERED_TYPES.contains(statistic.getBeanType())) {
+                queries += statistic.getExecutionCount();
+            }
+        }
+        return queries;
+    }
+}
@@ -0,0 +1,237 @@
+package models;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.avaje.ebean.Ebean;
+import com.avaje.ebean.Transaction;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import play.Application;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.libs.Json;
+import play.test.WithApplication;
+import services.TokenVersions;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs every finder against a seeded dataset and fails if any statement it
+ * sends reads a table with a sequential scan. The statements are taken
+ * from Ebean's SQL log and explained with the values they were bound to,
+ * so a finder that changes is checked as it is.
+ *
+ * Sequential scans are disabled for the check, so the planner only falls
+ * back to one when no index can serve the query; the dataset is far too
+ * small for the planner's own choice to mean anything. Everything runs in
+ * one transaction that is rolled back.
+ */
+public class QueryPlanTest extends WithApplication {
+
+    private static final int VOTERS = 2000;
+    private static final int POLLS = 10000;
+    private static final String SQL_LOGGER = "org.avaje.ebean.SQL";
+    private static final String SUMMARY_LOGGER = "org.avaje.ebean.SUM";
+    private static final Pattern LOGGED_STATEMENT = Pattern.compile("(?:txn\\[\\w+\\] )?(.*); --bind\\((.*)\\)", Pattern.DOTALL);
+    private static final Pattern LOGGED_SUMMARY_VALUES = Pattern.compile(" bind\\[(.*)\\]$");
+
+    private final ListAppender<ILoggingEvent> statements = new ListAppender<>();
+    private final List<Logger> ebeanLoggers = new ArrayList<>();
+    private Transaction transaction;
+    private Connection connection;
+
+    @Override
+    protected Application provideApplication() {
+        return new GuiceApplicationBuilder().build();
+    }
+
+    @Before
+    public void seed() throws SQLException {
+        //Ebean decides whether to log the statements of a transaction when it begins.
+        for(String name : new String[] {SQL_LOGGER, SUMMARY_LOGGER}) {
+            Logger logger = (Logger) LoggerFactory.getLogger(name);
+            logger.setLevel(Level.TRACE);
+            logger.setAdditive(false);
+            logger.addAppender(statements);
+            ebeanLoggers.add(logger);
+        }
+        statements.start();
+        transaction = Ebean.beginTransaction();
+        connection = transaction.getConnection();
+        execute("insert into voter (status, code, role, email, username, token_version, time_updated, time_created)"
+                + " select 'Registered', 'qpv' || i, 'User', 'qp' || i || '@plan.test', 'qp_' || i, 0, now(), now()"
+                + " from generate_series(1, " + VOTERS + ") i");
+        execute("insert into poll (code, status, creator_id, visibility, mode, question, expiration, time_updated, time_created)"
+                + " select 'qpp' || i, 'Active', (select id from voter where code = 'qpv' || (i % " + VOTERS + " + 1)),"
+                + " case when i % 3 = 0 then 'Private' else 'Public' end, 'Single', 'Query plan poll ' || i,"
+                + " now() + interval '1 day', now(), now() - i * interval '1 minute'"
+                + " from generate_series(1, " + POLLS + ") i");
+        execute("insert into option (code, poll_id, option, votes, time_updated, time_created)"
+                + " select p.code || '-' || o, p.id, 'Option ' || o, 0, now(), now()"
+                + " from poll p cross join generate_series(1, 3) o where p.code like 'qpp%'");
+        execute("insert into participation (voter_id, poll_id, code, time_updated, time_created)"
+                + " select p.creator_id, p.id, 'qpa' || p.id, now(), now() from poll p where p.code like 'qpp%'");
+        execute("insert into vote (voter_id, poll_id, code, time_updated, time_created)"
+                + " select p.creator_id, p.id, 'qpo' || p.id, now(), now() from poll p where p.code like 'qpp%' and p.id % 2 = 0");
+        execute("insert into revoked_token (token_id, voter_id, expiration, time_created)"
+                + " select 'qpt' || i, 1, now() + interval '1 day', now() - i * interval '1 second'"
+                + " from generate_series(1, 1000) i");
+        for(String table : new String[] {"voter", "poll", "option", "participation", "vote", "revoked_token"}) {
+            execute("analyze " + table);
+        }
+        execute("set local enable_seqscan = off");
+    }
+
+    @After
+    public void rollback() {
+        transaction.rollback();
+        transaction.end();
+        for(Logger logger : ebeanLoggers) {
+            logger.detachAppender(statements);
+            logger.setLevel(null);
+            logger.setAdditive(true);
+        }
+    }
+
+    @Test
+    public void testFinderQueriesUseIndexes() throws SQLException {
+        Long voterId = queryLong("select id from voter where code = 'qpv7'");
+        //Lookups by id are answered from the transaction once the bean is loaded.
+        Long otherVoterId = queryLong("select id from voter where code = 'qpv8'");
+        Long pollId = queryLong("select id from poll where code = 'qpp42'");
+        PollCursor cursor = PollCursor.after(PollView.of(Poll.findPollByCode("qpp500"), option -> option.votes));
+        TokenVersions tokenVersions = app.injector().instanceOf(TokenVersions.class);
+
+        Map<String, Runnable> finders = new LinkedHashMap<>();
+        finders.put("Voter.findVoterByCode", () -> Voter.findVoterByCode("qpv7"));
+        finders.put("Voter.findVoterByUsername", () -> Voter.findVoterByUsername("qp_7"));
+        finders.put("Voter.findVoterByEmail", () -> Voter.findVoterByEmail("qp7@plan.test"));
+        finders.put("TokenVersions.load", () -> tokenVersions.load(otherVoterId));
+        finders.put("Poll.findPollByCode", () -> Poll.findPollByCode("qpp42"));
+        finders.put("Poll.findPublicPollsPagedList", () -> Poll.findPublicPollsPagedList(50, 10).getList());
+        finders.put("Poll.findPrivatePollsPagedList", () -> Poll.findPrivatePollsPagedList(0, 10, voterId).getList());
+        finders.put("Poll.findCreatedPollsPagedList", () -> Poll.findCreatedPollsPagedList(0, 10, voterId).getList());
+        finders.put("Poll.findPublicPollsPage", () -> Poll.findPublicPollsPage(cursor, 10));
+        finders.put("Poll.findPrivatePollsPage", () -> Poll.findPrivatePollsPage(null, 10, voterId));
+        finders.put("Poll.findCreatedPollsPage", () -> Poll.findCreatedPollsPage(null, 10, voterId));
+        finders.put("Poll.countPublicPolls", Poll::countPublicPolls);
+        finders.put("Poll.countPrivatePolls", () -> Poll.countPrivatePolls(voterId));
+        finders.put("Poll.countCreatedPolls", () -> Poll.countCreatedPolls(voterId));
+        finders.put("Option.findOptionByCode", () -> Option.findOptionByCode("qpp42-1"));
+        finders.put("Option.findOptionsByPoll", () -> Option.findOptionsByPoll(pollId));
+        finders.put("Option.findOptionTalliesByPoll", () -> Option.findOptionTalliesByPoll(pollId));
+        finders.put("Participation.findParticipationByIds", () -> Participation.findParticipationByIds(voterId, pollId));
+        finders.put("Vote.findVoteByIds", () -> Vote.findVoteByIds(voterId, pollId));
+        finders.put("PollVoteStatus.findPollVoteStatus", () -> PollVoteStatus.findPollVoteStatus("qpp42", voterId));
+        finders.put("RevokedToken.findRevokedTokensSince", () -> RevokedToken.findRevokedTokensSince(Instant.now().minusSeconds(60)));
+        finders.put("RevokedToken.deleteExpiredRevokedTokens", RevokedToken::deleteExpiredRevokedTokens);
+
+        List<String> sequentialScans = new ArrayList<>();
+        for(Map.Entry<String, Runnable> finder : finders.entrySet()) {
+            statements.list.clear();
+            finder.getValue().run();
+            List<ILoggingEvent> logged = new ArrayList<>(statements.list);
+            int explained = 0;
+            for(int i = 0; i < logged.size(); i++) {
+                if(!SQL_LOGGER.equals(logged.get(i).getLoggerName())) {
+                    continue;
+                }
+                String statement = logged.get(i).getFormattedMessage();
+                if(!statement.contains("; --bind(")) {
+                    //Sql updates log their values with the summary that follows the statement.
+                    Matcher summary = LOGGED_SUMMARY_VALUES.matcher(i + 1 < logged.size() ? logged.get(i + 1).getFormattedMessage() : "");
+                    assertTrue("No values logged for " + statement, summary.find());
+                    statement += "; --bind(" + summary.group(1) + ")";
+                }
+                JsonNode plan = Json.parse(explain(statement));
+                collectSequentialScans(finder.getKey(), plan, sequentialScans);
+                explained++;
+            }
+            assertTrue("No statement logged for " + finder.getKey(), explained > 0);
+        }
+        assertTrue("Sequential scans: " + sequentialScans, sequentialScans.isEmpty());
+    }
+
+    /**
+     * Explains a statement of the SQL log, <code>txn[id] sql; --bind(values)</code>,
+     * as a prepared statement executed with the logged values.
+     */
+    private String explain(String logged) throws SQLException {
+        Matcher matcher = LOGGED_STATEMENT.matcher(logged);
+        assertTrue("Unexpected SQL log line: " + logged, matcher.matches());
+        StringBuilder sql = new StringBuilder();
+        int parameters = 0;
+        for(char c : matcher.group(1).toCharArray()) {
+            if(c == '?') {
+                sql.append('$').append(++parameters);
+            } else {
+                sql.append(c);
+            }
+        }
+        //Ebean's queries separate values with commas, raw sql queries end each one with a comma and space.
+        List<String> values = new ArrayList<>();
+        String binds = matcher.group(2).replaceFirst(", $", "");
+        if(!binds.isEmpty()) {
+            for(String value : binds.split(", ?", -1)) {
+                values.add(value.equals("null") ? "null" : "'" + value.replace("'", "''") + "'");
+            }
+        }
+        assertEquals("Bind values of " + logged, parameters, values.size());
+        execute("prepare finder as " + sql);
+        try {
+            return queryString("explain (format json) execute finder" + (values.isEmpty() ? "" : "(" + String.join(", ", values) + ")"));
+        } finally {
+            execute("deallocate finder");
+        }
+    }
+
+    private static void collectSequentialScans(String finder, JsonNode node, List<String> sequentialScans) {
+        if(node.isArray()) {
+            for(JsonNode child : node) {
+                collectSequentialScans(finder, child, sequentialScans);
+            }
+        } else if(node.isObject()) {
+            if("Seq Scan".equals(node.path("Node Type").asText())) {
+                sequentialScans.add(finder + " on " + node.path("Relation Name").asText());
+            }
+            node.fields().forEachRemaining(field -> collectSequentialScans(finder, field.getValue(), sequentialScans));
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private long queryLong(String sql) throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(sql)) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    private String queryString(String sql) throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(sql)) {
+            resultSet.next();
+            return resultSet.getString(1);
+        }
+    }
+}
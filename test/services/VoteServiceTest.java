@@ -0,0 +1,89 @@
+package services;
+
+import com.avaje.ebean.Ebean;
+import models.Option;
+import models.Poll;
+import models.Voter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.Application;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.test.WithApplication;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.assertEquals;
+
+public class VoteServiceTest extends WithApplication {
+
+    private static final int VOTERS = 2000;
+    private static final int THREADS = 32;
+
+    private Voter creator;
+    private Poll poll;
+    private List<Voter> voters;
+
+    @Override
+    protected Application provideApplication() {
+        return new GuiceApplicationBuilder().build();
+    }
+
+    @Before
+    public void createPoll() {
+        String prefix = "vst" + System.nanoTime() % 100000;
+        creator = new Voter("User", prefix + "@creator.test", prefix + "_creator", null, null);
+        creator.save();
+        poll = new Poll(creator, "Public", "Single", "Concurrent voting test", Instant.now().plus(1, ChronoUnit.DAYS));
+        poll.options.add(new Option("Yes"));
+        poll.options.add(new Option("No"));
+        poll.save();
+
+        voters = new ArrayList<>();
+        for(int i = 0; i < VOTERS; i++) {
+            Voter voter = new Voter("User", prefix + i + "@voter.test", prefix + "_" + i, null, null);
+            voter.save();
+            voters.add(voter);
+        }
+    }
+
+    @After
+    public void deletePoll() {
+        Ebean.createSqlUpdate("delete from vote where poll_id = :poll").setParameter("poll", poll.id).execute();
+        Ebean.createSqlUpdate("delete from option where poll_id = :poll").setParameter("poll", poll.id).execute();
+        Ebean.createSqlUpdate("delete from poll where id = :poll").setParameter("poll", poll.id).execute();
+        for(Voter voter : voters) {
+            voter.delete();
+        }
+        creator.delete();
+    }
+
+    @Test
+    public void testConcurrentVotesOnOneOptionAreAllCounted() throws Exception {
+        final VoteService voteService = app.injector().instanceOf(VoteService.class);
+        final Long optionId = poll.options.get(0).id;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> submitted = new ArrayList<>();
+        for(final Voter voter : voters) {
+            submitted.add(executor.submit(() -> {
+                start.await();
+                return voteService.commitVote(voter, poll, Collections.singletonList(optionId));
+            }));
+        }
+        start.countDown();
+        for(Future<?> future : submitted) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(VOTERS, Option.find.byId(optionId).votes);
+        assertEquals(0, Option.find.byId(poll.options.get(1).id).votes);
+    }
+
+}